@@ -0,0 +1,151 @@
+/*
+ * Copyright 2002-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.qaware.xff;
+
+import de.qaware.xff.filter.ForwardedHeaderFilter;
+import de.qaware.xff.util.uri.UriComponents;
+import de.qaware.xff.util.uri.UriComponentsBuilder;
+import org.apache.commons.lang3.StringUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.mock.web.MockFilterConfig;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import static de.qaware.xff.util.ForwardedHeader.*;
+
+/**
+ * Attacker controlled input crafted to make backtracking parsers slow: long runs of the characters that open
+ * optional groups ('{', '[', ':', '@') followed by a character that makes the input invalid at the very end.
+ * <p>Measured in {@link Mode#SampleTime}, so the reported percentiles show the worst case latency per call,
+ * which has to grow linearly with {@link #length}. The unit tests assert an upper bound for the largest inputs.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class AdversarialInputBenchmark {
+
+    /**
+     * Repeated sequences.
+     */
+    public enum Shape {
+        BRACES("{"),
+        BRACKETS("["),
+        COLONS(":"),
+        AT_SIGNS("@"),
+        MIXED("{[:@");
+
+        private final String sequence;
+
+        Shape(String sequence) {
+            this.sequence = sequence;
+        }
+    }
+
+    @Param({"BRACES", "BRACKETS", "COLONS", "AT_SIGNS", "MIXED"})
+    public Shape shape;
+
+    @Param({"1000", "100000"})
+    public int length;
+
+    private String uri;
+
+    private String httpUrl;
+
+    private String payload;
+
+    private ForwardedHeaderFilter filter;
+
+    private MockHttpServletRequest request;
+
+    @Setup
+    public void setup() throws ServletException {
+        payload = StringUtils.repeat(shape.sequence, length / shape.sequence.length());
+        uri = "http://h:" + payload + "#\n";
+        httpUrl = "http://" + payload + "#";
+
+        MockFilterConfig config = new MockFilterConfig("forwardedHeaderFilter");
+        config.addInitParameter(ForwardedHeaderFilter.RESOLVE_REMOTE_ADDRESS, "true");
+        filter = new ForwardedHeaderFilter();
+        filter.init(config);
+        request = new MockHttpServletRequest("GET", "/app/" + payload);
+        request.addHeader(FORWARDED.headerName(), "for=\"" + payload + "\";host=" + payload + ";proto=https");
+        request.addHeader(X_FORWARDED_HOST.headerName(), payload);
+        request.addHeader(X_FORWARDED_PREFIX.headerName(), "/" + payload);
+        request.addHeader(X_FORWARDED_FOR.headerName(), payload);
+    }
+
+    @Benchmark
+    public UriComponentsBuilder fromUriString() {
+        return parseOrNull(uri, false);
+    }
+
+    @Benchmark
+    public UriComponentsBuilder fromHttpUrl() {
+        return parseOrNull(httpUrl, true);
+    }
+
+    @Benchmark
+    public UriComponentsBuilder query() {
+        return UriComponentsBuilder.newInstance().query(payload);
+    }
+
+    @Benchmark
+    public UriComponents expand() {
+        try {
+            return UriComponentsBuilder.fromPath(payload).build().expand(Collections.emptyMap());
+        } catch (IllegalArgumentException e) {
+            // a variable was found but has no value
+            return null;
+        }
+    }
+
+    @Benchmark
+    public void doFilter(Blackhole blackhole) throws IOException, ServletException {
+        try {
+            filter.doFilter(request, new MockHttpServletResponse(), (servletRequest, servletResponse) -> {
+                HttpServletRequest wrapped = (HttpServletRequest) servletRequest;
+                blackhole.consume(wrapped.getRequestURL());
+                blackhole.consume(wrapped.getContextPath());
+                blackhole.consume(wrapped.getRemoteAddr());
+            });
+        } catch (IllegalArgumentException e) {
+            // e.g. a non numeric port in X-Forwarded-Host
+            blackhole.consume(e);
+        }
+    }
+
+    private static UriComponentsBuilder parseOrNull(String input, boolean httpUrl) {
+        try {
+            return httpUrl ? UriComponentsBuilder.fromHttpUrl(input) : UriComponentsBuilder.fromUriString(input);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
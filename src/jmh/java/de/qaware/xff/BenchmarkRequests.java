@@ -0,0 +1,87 @@
+/*
+ * Copyright 2002-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.qaware.xff;
+
+import org.springframework.mock.web.MockHttpServletRequest;
+
+/**
+ * Realistic requests as seen by an application behind a reverse proxy, shared by all benchmarks.
+ */
+public final class BenchmarkRequests {
+
+    private BenchmarkRequests() {
+        //utility class
+    }
+
+    /**
+     * Forwarded header sets a request may carry.
+     */
+    public enum HeaderSet {
+        /**
+         * Direct access, no forwarded headers at all.
+         */
+        NONE,
+        /**
+         * Typical load balancer: X-Forwarded-Proto/Host/Port/Prefix/For.
+         */
+        X_FORWARDED,
+        /**
+         * RFC 7239 Forwarded header with two proxy hops plus X-Forwarded-Prefix.
+         */
+        FORWARDED
+    }
+
+    /**
+     * Create a GET request with common browser headers and the given forwarded headers.
+     *
+     * @param headerSet forwarded headers to add
+     * @return the request
+     */
+    public static MockHttpServletRequest create(HeaderSet headerSet) {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/app/api/v1/customers/4711/orders");
+        request.setScheme("http");
+        request.setServerName("app-7f9c4d-x2x8q.internal");
+        request.setServerPort(8080);
+        request.setContextPath("/app");
+        request.setQueryString("page=2&size=50&sort=created,desc");
+        request.setRemoteAddr("10.12.0.5");
+        request.addHeader("Host", "app-7f9c4d-x2x8q.internal:8080");
+        request.addHeader("Accept", "application/json, text/plain, */*");
+        request.addHeader("Accept-Encoding", "gzip, deflate, br");
+        request.addHeader("Accept-Language", "de-DE,de;q=0.9,en-US;q=0.8,en;q=0.7");
+        request.addHeader("User-Agent", "Mozilla/5.0 (X11; Linux x86_64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/70.0.3538.77 Safari/537.36");
+        request.addHeader("Cookie", "JSESSIONID=8C0F7A2B5E3D1F9A6C4B2E0D8F6A4C2E; XSRF-TOKEN=5b2c9f4e-1a7d-4e3b-9c8f-2d6a0b4e8c1f");
+        request.addHeader("X-Request-Id", "f3c9a4e2-7b1d-4c8e-a6f0-2e9d5b3c7a1f");
+        switch (headerSet) {
+            case NONE:
+                break;
+            case X_FORWARDED:
+                request.addHeader("X-Forwarded-Proto", "https");
+                request.addHeader("X-Forwarded-Host", "shop.example.com");
+                request.addHeader("X-Forwarded-Port", "443");
+                request.addHeader("X-Forwarded-Prefix", "/shop");
+                request.addHeader("X-Forwarded-For", "203.0.113.195, 10.12.0.2");
+                break;
+            case FORWARDED:
+                request.addHeader("Forwarded", "for=203.0.113.195;proto=https;host=shop.example.com, for=\"[2001:db8:cafe::17]:4711\";by=10.12.0.2");
+                request.addHeader("X-Forwarded-Prefix", "/shop");
+                break;
+            default:
+                throw new UnsupportedOperationException("Implementation for enum case is missing: " + headerSet);
+        }
+        return request;
+    }
+}
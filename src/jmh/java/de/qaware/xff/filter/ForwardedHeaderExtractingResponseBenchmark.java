@@ -0,0 +1,79 @@
+/*
+ * Copyright 2002-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.qaware.xff.filter;
+
+import de.qaware.xff.BenchmarkRequests;
+import de.qaware.xff.BenchmarkRequests.HeaderSet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.mock.web.MockFilterConfig;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.io.IOException;
+
+/**
+ * {@link ForwardedHeaderExtractingResponse#sendRedirect(String)} for the different kinds of locations.
+ * <p>Request and response wrappers are created per invocation, as the filter does per request.
+ */
+@State(Scope.Thread)
+public class ForwardedHeaderExtractingResponseBenchmark {
+
+    @Param({"/shop/cart?step=2#summary", "checkout/confirm", "../account/orders", "//cdn.example.com/static/app.js", "https://login.example.com/oauth/authorize?client_id=shop"})
+    public String location;
+
+    private HttpServletRequest request;
+
+    private ForwardedHeaderInitialHeaders initialOptions;
+
+    private CapturingResponse target;
+
+    @Setup
+    public void setup() {
+        request = BenchmarkRequests.create(HeaderSet.X_FORWARDED);
+        initialOptions = new ForwardedHeaderInitialHeaders(new MockFilterConfig());
+        target = new CapturingResponse(new MockHttpServletResponse());
+    }
+
+    @Benchmark
+    public String sendRedirect() throws IOException {
+        HttpServletRequest wrappedRequest = new ForwardedHeaderExtractingRequest(request, initialOptions, XForwardedPrefixStrategy.REPLACE);
+        new ForwardedHeaderExtractingResponse(target, wrappedRequest).sendRedirect(location);
+        return target.redirectedUrl;
+    }
+
+    /**
+     * Captures the location instead of committing the (reused) response.
+     */
+    private static final class CapturingResponse extends HttpServletResponseWrapper {
+
+        private String redirectedUrl;
+
+        private CapturingResponse(HttpServletResponse response) {
+            super(response);
+        }
+
+        @Override
+        public void sendRedirect(String location) {
+            this.redirectedUrl = location;
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2002-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.qaware.xff.filter;
+
+import de.qaware.xff.BenchmarkRequests;
+import de.qaware.xff.BenchmarkRequests.HeaderSet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.mock.web.MockFilterConfig;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import java.io.IOException;
+
+/**
+ * {@link ForwardedHeaderFilter#doFilter} for each {@link HeaderProcessingStrategy} and forwarded header set.
+ * <p>The filter chain reads what a typical application reads from the wrapped request.
+ */
+@State(Scope.Thread)
+public class ForwardedHeaderFilterBenchmark {
+
+    @Param({"EVAL_AND_KEEP", "EVAL_AND_REMOVE", "DONT_EVAL_AND_REMOVE"})
+    public HeaderProcessingStrategy strategy;
+
+    @Param({"NONE", "X_FORWARDED", "FORWARDED"})
+    public HeaderSet headers;
+
+    private ForwardedHeaderFilter filter;
+
+    private MockHttpServletRequest request;
+
+    private MockHttpServletResponse response;
+
+    private final ConsumingFilterChain readingChain = new ConsumingFilterChain(true);
+
+    private final ConsumingFilterChain passThroughChain = new ConsumingFilterChain(false);
+
+    @Setup
+    public void setup() throws ServletException {
+        MockFilterConfig config = new MockFilterConfig("forwardedHeaderFilter");
+        config.addInitParameter(ForwardedHeaderFilter.HEADER_PROCESSING_STRATEGY, strategy.name());
+        filter = new ForwardedHeaderFilter();
+        filter.init(config);
+        request = BenchmarkRequests.create(headers);
+        response = new MockHttpServletResponse();
+    }
+
+    /**
+     * The application reads scheme, host, port, URL, paths, remote address and a header.
+     */
+    @Benchmark
+    public void doFilter(Blackhole blackhole) throws IOException, ServletException {
+        readingChain.blackhole = blackhole;
+        filter.doFilter(request, response, readingChain);
+    }
+
+    /**
+     * The application does not access any of the overridden methods.
+     */
+    @Benchmark
+    public void doFilterWithoutAccess(Blackhole blackhole) throws IOException, ServletException {
+        passThroughChain.blackhole = blackhole;
+        filter.doFilter(request, response, passThroughChain);
+    }
+
+    private static final class ConsumingFilterChain implements FilterChain {
+
+        private final boolean read;
+
+        private Blackhole blackhole;
+
+        private ConsumingFilterChain(boolean read) {
+            this.read = read;
+        }
+
+        @Override
+        public void doFilter(ServletRequest servletRequest, ServletResponse servletResponse) {
+            HttpServletRequest request = (HttpServletRequest) servletRequest;
+            if (read) {
+                blackhole.consume(request.getScheme());
+                blackhole.consume(request.getServerName());
+                blackhole.consume(request.getServerPort());
+                blackhole.consume(request.isSecure());
+                blackhole.consume(request.getRequestURL());
+                blackhole.consume(request.getContextPath());
+                blackhole.consume(request.getRequestURI());
+                blackhole.consume(request.getRemoteAddr());
+                blackhole.consume(request.getHeader("Accept"));
+            } else {
+                blackhole.consume(request);
+            }
+        }
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2002-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.qaware.xff.util;
+
+import de.qaware.xff.BenchmarkRequests;
+import de.qaware.xff.BenchmarkRequests.HeaderSet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+/**
+ * {@link UrlPathHelper#getPathWithinApplication} as used by the filter (no decoding, semicolon content kept)
+ * and with the default settings.
+ */
+@State(Scope.Thread)
+public class UrlPathHelperBenchmark {
+
+    @Param({"/app/api/v1/customers/4711/orders", "/app/files/Gr%C3%BC%C3%9Fe%20aus%20M%C3%BCnchen.pdf", "/app//a/./b/../c;jsessionid=8C0F7A2B/d;v=1"})
+    public String requestUri;
+
+    private MockHttpServletRequest request;
+
+    private UrlPathHelper rawPathHelper;
+
+    private UrlPathHelper defaultPathHelper;
+
+    @Setup
+    public void setup() {
+        request = BenchmarkRequests.create(HeaderSet.NONE);
+        request.setRequestURI(requestUri);
+        request.setCharacterEncoding("UTF-8");
+
+        rawPathHelper = new UrlPathHelper();
+        rawPathHelper.setUrlDecode(false);
+        rawPathHelper.setRemoveSemicolonContent(false);
+        defaultPathHelper = new UrlPathHelper();
+    }
+
+    @Benchmark
+    public String getPathWithinApplicationRaw() {
+        return rawPathHelper.getPathWithinApplication(request);
+    }
+
+    @Benchmark
+    public String getPathWithinApplicationDecoded() {
+        return defaultPathHelper.getPathWithinApplication(request);
+    }
+}
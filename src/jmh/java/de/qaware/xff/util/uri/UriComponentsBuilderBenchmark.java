@@ -0,0 +1,153 @@
+/*
+ * Copyright 2002-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.qaware.xff.util.uri;
+
+import de.qaware.xff.BenchmarkRequests;
+import de.qaware.xff.BenchmarkRequests.HeaderSet;
+import de.qaware.xff.filter.ForwardedHeaderInitialHeaders;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.mock.web.MockFilterConfig;
+
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * Parsing and rendering of URIs with {@link UriComponentsBuilder} and {@link UriComponents}.
+ */
+@State(Scope.Thread)
+public class UriComponentsBuilderBenchmark {
+
+    @Param({
+            "https://shop.example.com/shop/api/v1/customers/4711/orders?page=2&size=50&sort=created,desc#top",
+            "/shop/cart?step=2",
+            "http://[2001:db8:cafe::17]:8080/a/b;jsessionid=8C0F7A2B/c",
+            "mailto:support@example.com"})
+    public String uri;
+
+    /**
+     * Not a {@link Param}, {@link UriComponentsBuilder#fromHttpUrl(String)} rejects most of the {@link #uri} values.
+     */
+    private String httpUrl = "https://shop.example.com:8443/shop/api/v1/customers/4711/orders?page=2&size=50";
+
+    private UriComponents uriComponents;
+
+    @Setup
+    public void setup() {
+        uriComponents = UriComponentsBuilder.fromUriString(uri).build();
+    }
+
+    @Benchmark
+    public UriComponentsBuilder fromUriString() {
+        return UriComponentsBuilder.fromUriString(uri);
+    }
+
+    @Benchmark
+    public UriComponentsBuilder fromHttpUrl() {
+        return UriComponentsBuilder.fromHttpUrl(httpUrl);
+    }
+
+    @Benchmark
+    public UriComponents fromHttpRequest(RequestState state) {
+        return UriComponentsBuilder.fromHttpRequest(state.request, state.initialOptions).build();
+    }
+
+    @Benchmark
+    public String toUriString() {
+        return uriComponents.toUriString();
+    }
+
+    @Benchmark
+    public UriComponents encode() {
+        return uriComponents.encode();
+    }
+
+    @Benchmark
+    public UriComponents encodeEscaped(EncodeState state) {
+        return state.unencoded.encode();
+    }
+
+    @Benchmark
+    public String normalizePath(PathState state) {
+        return UriComponents.normalizePath(state.path);
+    }
+
+    @Benchmark
+    public String fromUriStringToUriString() {
+        return UriComponentsBuilder.fromUriString(uri).toUriString();
+    }
+
+    /**
+     * Components with chars to escape for {@link #encodeEscaped(EncodeState)}, independent of the {@link #uri} parameter.
+     */
+    @State(Scope.Thread)
+    public static class EncodeState {
+
+        private UriComponents unencoded;
+
+        @Setup
+        public void setup() {
+            unencoded = UriComponentsBuilder.newInstance().scheme("https").host("shop.example.com")
+                    .path("/shop/api/v1/hotel list/Z\u00fcrich").queryParam("q", "caf\u00e9 & bar").build();
+        }
+    }
+
+    /**
+     * Long paths for {@link #normalizePath(PathState)}, independent of the {@link #uri} parameter.
+     */
+    @State(Scope.Thread)
+    public static class PathState {
+
+        @Param({"8", "1000"})
+        public int segments;
+
+        @Param({"true", "false"})
+        public boolean dotSegments;
+
+        private String path;
+
+        @Setup
+        public void setup() {
+            StringBuilder builder = new StringBuilder("/app");
+            for (int i = 0; i < segments; i++) {
+                builder.append(dotSegments && i % 4 == 3 ? "/./x/../segment" : "/segment").append(i);
+            }
+            path = builder.toString();
+        }
+    }
+
+    /**
+     * Request for {@link #fromHttpRequest(RequestState)}, independent of the {@link #uri} parameter.
+     */
+    @State(Scope.Thread)
+    public static class RequestState {
+
+        @Param({"NONE", "X_FORWARDED", "FORWARDED"})
+        public HeaderSet headers;
+
+        private HttpServletRequest request;
+
+        private ForwardedHeaderInitialHeaders initialOptions;
+
+        @Setup
+        public void setup() {
+            request = BenchmarkRequests.create(headers);
+            initialOptions = new ForwardedHeaderInitialHeaders(new MockFilterConfig());
+        }
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2002-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.qaware.xff.filter;
+
+import de.qaware.xff.util.ForwardedElement;
+import de.qaware.xff.util.ForwardedHeader;
+import de.qaware.xff.util.uri.OriginRules;
+import org.apache.commons.lang3.Validate;
+
+import javax.servlet.http.HttpServletRequest;
+import java.util.Map;
+
+import static de.qaware.xff.util.ForwardedHeader.*;
+import static de.qaware.xff.util.HttpServletRequestUtil.getFirstValueToken;
+import static org.apache.commons.lang3.StringUtils.isNotBlank;
+
+/**
+ * Scheme, host and port as configured by the forwarded header defaults (init params), parsed and validated once.
+ * <p>Applied to requests without any forwarded header of their own affecting the origin, with the same result as
+ * {@link de.qaware.xff.util.uri.UriComponentsBuilder#fromHttpRequest} but without any per request parsing.
+ * If the defaults determine scheme, host and port completely, the same {@link ForwardedOrigin} instance is returned
+ * for every request.
+ */
+final class ForwardedDefaultOrigin {
+
+    /**
+     * Forwarded headers which affect scheme, host or port
+     */
+    static final int ORIGIN_HEADERS_MASK = FORWARDED.mask() | X_FORWARDED_PROTO.mask() | X_FORWARDED_HOST.mask() | X_FORWARDED_PORT.mask();
+
+    private static final int PORT_OF_REQUEST = -2;
+    private static final int DEFAULT_PORT = -1;
+
+    /**
+     * null: scheme of the request
+     */
+    /*@Nullable*/
+    private final String scheme;
+
+    /**
+     * null: server name of the request
+     */
+    /*@Nullable*/
+    private final String host;
+
+    /**
+     * {@link #PORT_OF_REQUEST}, {@link #DEFAULT_PORT} or the port
+     */
+    private final int port;
+
+    /*@Nullable*/
+    private final ForwardedOrigin constantOrigin;
+
+    private ForwardedDefaultOrigin(/*@Nullable*/ String scheme, /*@Nullable*/ String host, int port) {
+        this.scheme = scheme;
+        this.host = host;
+        this.port = port;
+        this.constantOrigin = (scheme != null && host != null && port != PORT_OF_REQUEST) ?
+                new ForwardedOrigin(scheme, host, normalizePort(scheme, port)) : null;
+    }
+
+    /**
+     * Parse the defaults, same semantics as for the headers of a request.
+     *
+     * @param defaultHeaders forwarded header defaults by (case insensitive) header name
+     * @return the precompiled defaults
+     * @throws IllegalArgumentException if a default is invalid, e.g. a port is not a number
+     */
+    static ForwardedDefaultOrigin of(Map<String, String> defaultHeaders) {
+        String forwarded = null;
+        String proto = null;
+        String host = null;
+        String port = null;
+        for (Map.Entry<String, String> entry : defaultHeaders.entrySet()) {
+            ForwardedHeader header = ForwardedHeader.forName(entry.getKey());
+            if (header == FORWARDED) {
+                forwarded = entry.getValue();
+            } else if (header == X_FORWARDED_PROTO) {
+                proto = entry.getValue();
+            } else if (header == X_FORWARDED_HOST) {
+                host = entry.getValue();
+            } else if (header == X_FORWARDED_PORT) {
+                port = entry.getValue();
+            }
+        }
+
+        Builder builder = new Builder();
+        if (isNotBlank(forwarded)) {
+            ForwardedElement element = ForwardedElement.parseFirst(forwarded);
+            if (element.getProto() != null) {
+                builder.scheme(element.getProto());
+            }
+            if (element.getHost() != null) {
+                builder.hostAndPort(element.getHost());
+            }
+        } else {
+            if (isNotBlank(proto)) {
+                builder.scheme(getFirstValueToken(proto, ","));
+            }
+            if (isNotBlank(host)) {
+                builder.hostAndPort(getFirstValueToken(host, ","));
+            }
+            if (isNotBlank(port)) {
+                builder.port = parsePort(getFirstValueToken(port, ","));
+            }
+        }
+        return new ForwardedDefaultOrigin(builder.scheme, builder.host, builder.port);
+    }
+
+    /**
+     * @param request request without forwarded headers affecting the origin
+     * @return the origin of the request overlaid with the defaults
+     */
+    ForwardedOrigin resolve(HttpServletRequest request) {
+        if (constantOrigin != null) {
+            return constantOrigin;
+        }
+        String resolvedScheme = scheme != null ? scheme : request.getScheme();
+        String resolvedHost = host != null ? host : OriginRules.getHost(request);
+        int resolvedPort = port;
+        if (resolvedPort == PORT_OF_REQUEST) {
+            int serverPort = request.getServerPort();
+            resolvedPort = (serverPort > 0 && !OriginRules.isDefaultPort(request.getScheme(), serverPort)) ? serverPort : DEFAULT_PORT;
+        }
+        return new ForwardedOrigin(resolvedScheme, resolvedHost, normalizePort(resolvedScheme, resolvedPort));
+    }
+
+    /**
+     * A forwarded http/80 or https/443 is not part of the URI
+     */
+    private static int normalizePort(/*@Nullable*/ String scheme, int port) {
+        return OriginRules.isForwardedDefaultPort(scheme, port) ? DEFAULT_PORT : port;
+    }
+
+    private static int parsePort(String port) {
+        int result = Integer.parseInt(port);
+        Validate.isTrue(result >= DEFAULT_PORT, "Port must be >= -1");
+        return result;
+    }
+
+    private static final class Builder {
+        /*@Nullable*/
+        private String scheme;
+        /*@Nullable*/
+        private String host;
+        private int port = PORT_OF_REQUEST;
+
+        private void scheme(String scheme) {
+            this.scheme = scheme;
+            this.port = DEFAULT_PORT;
+        }
+
+        private void hostAndPort(String hostToUse) {
+            int portSeparatorIdx = hostToUse.lastIndexOf(':');
+            if (portSeparatorIdx > hostToUse.lastIndexOf(']')) {
+                this.host = hostToUse.substring(0, portSeparatorIdx);
+                this.port = parsePort(hostToUse.substring(portSeparatorIdx + 1));
+            } else {
+                this.host = hostToUse;
+                this.port = DEFAULT_PORT;
+            }
+        }
+    }
+}
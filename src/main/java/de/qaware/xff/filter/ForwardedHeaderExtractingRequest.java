@@ -15,6 +15,9 @@
  */
 package de.qaware.xff.filter;
 
+import de.qaware.xff.util.BoundedConcurrentCache;
+import de.qaware.xff.util.ForwardedFor;
+import de.qaware.xff.util.ForwardedHeader;
 import de.qaware.xff.util.HttpServletRequestUtil;
 import de.qaware.xff.util.UrlPathHelper;
 import de.qaware.xff.util.uri.UriComponents;
@@ -23,64 +26,238 @@ import de.qaware.xff.util.uri.UriComponentsBuilder;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletRequestWrapper;
 
+import static de.qaware.xff.util.ForwardedHeader.ALL_HEADERS_MASK;
+import static de.qaware.xff.util.ForwardedHeader.FORWARDED;
+import static de.qaware.xff.util.ForwardedHeader.X_FORWARDED_FOR;
+import static de.qaware.xff.util.ForwardedHeader.X_FORWARDED_HOST;
+import static de.qaware.xff.util.ForwardedHeader.X_FORWARDED_PORT;
 import static de.qaware.xff.util.ForwardedHeader.X_FORWARDED_PREFIX;
-import static de.qaware.xff.util.uri.UriComponents.PATH_DELIMITER_STRING;
+import static de.qaware.xff.util.ForwardedHeader.X_FORWARDED_PROTO;
+import static de.qaware.xff.util.uri.UriComponents.PATH_DELIMITER;
 import static org.apache.commons.lang3.StringUtils.isNotBlank;
 
 /**
  * Extract and use "Forwarded" or "X-Forwarded-*" headers.
+ * <p>The headers are evaluated lazily on first access of any of the overridden getters, each derived value
+ * is resolved once and then memoized. A request that never asks for any of them only pays for the wrapper itself.
+ * <p>Note: as a consequence, malformed forwarded headers are only detected on first access,
+ * unless the filter checks them upfront for {@link MalformedHeaderPolicy#REJECT}.
  */
 class ForwardedHeaderExtractingRequest extends HttpServletRequestWrapper {
 
-    private static final int HTTPS_PORT = 443;
-    private static final int HTTP_PORT = 80;
-    /*@Nullable*/
-    private final String scheme;
+    private final ForwardedHeaderExtractionOptions options;
 
-    private final boolean secure;
+    /**
+     * {@link de.qaware.xff.util.ForwardedHeader#mask() Mask} of the forwarded headers present in the wrapped request,
+     * headers not contained are never looked up.
+     */
+    private final int presentHeaders;
 
+    // Lazily resolved state. Requests are confined to one thread at a time; a racy re-computation would
+    // yield an equal result anyway, as every value is derived from the immutable wrapped request only.
     /*@Nullable*/
-    private final String host;
+    private ForwardedOrigin origin;
 
-    private final int port;
+    /*@Nullable*/
+    private String contextPath;
 
-    private final String contextPath;
+    /*@Nullable*/
+    private String requestUri;
 
-    private final String requestUri;
+    /*@Nullable*/
+    private String requestUrl;
 
-    private final String requestUrl;
+    /*@Nullable*/
+    private RemoteNode remoteNode;
 
-    @SuppressWarnings("squid:S3358")//nested ternary op is more readable in this case
     public ForwardedHeaderExtractingRequest(HttpServletRequest request, ForwardedHeaderInitialHeaders initialOptions, XForwardedPrefixStrategy prefixStrategy) {
+        this(request, new ForwardedHeaderExtractionOptions(initialOptions, prefixStrategy, null, null, ForwardedHeaderMetrics.NOOP));
+    }
+
+    /**
+     * @param request the request to wrap
+     * @param options the filter configuration
+     */
+    public ForwardedHeaderExtractingRequest(HttpServletRequest request, ForwardedHeaderExtractionOptions options) {
+        this(request, options, ALL_HEADERS_MASK);
+    }
+
+    /**
+     * @param request        the request to wrap
+     * @param options        the filter configuration
+     * @param presentHeaders {@link de.qaware.xff.util.ForwardedHeader#mask() mask} of the forwarded headers present
+     *                       in the request, as scanned by the filter
+     */
+    public ForwardedHeaderExtractingRequest(HttpServletRequest request, ForwardedHeaderExtractionOptions options, int presentHeaders) {
         super(request);
+        this.options = options;
+        this.presentHeaders = presentHeaders;
+    }
+
+    /**
+     * @return scheme, host and port of the client-originated request, resolved on first access
+     */
+    ForwardedOrigin getOrigin() {
+        ForwardedOrigin result = this.origin;
+        if (result == null) {
+            BoundedConcurrentCache<ForwardedOriginKey, ForwardedOrigin> originCache = this.options.getOriginCache();
+            if ((this.presentHeaders & ForwardedDefaultOrigin.ORIGIN_HEADERS_MASK) == 0) {
+                // nothing to parse: the request itself overlaid with the precompiled defaults
+                result = this.options.getInitialOptions().getDefaultOrigin().resolve(getWrappedRequest());
+            } else if (originCache != null) {
+                result = originCache.computeIfAbsent(new ForwardedOriginKey(getWrappedRequest(), this.presentHeaders), key -> resolveOrigin());
+            } else {
+                result = resolveOrigin();
+            }
+            ForwardedHeaderMetrics metrics = this.options.getMetrics();
+            if (metrics != ForwardedHeaderMetrics.NOOP) {
+                recordHeaderSource(getWrappedRequest(), metrics);
+            }
+            this.origin = result;
+        }
+        return result;
+    }
+
+    private ForwardedOrigin resolveOrigin() {
+        ForwardedHeaderMetrics metrics = this.options.getMetrics();
+        boolean timed = metrics.isTimingEnabled();
+        long start = timed ? System.nanoTime() : 0;
+        HttpServletRequest request = getWrappedRequest();
+        MalformedHeaderPolicy policy = this.options.getMalformedHeaderPolicy();
+        ForwardedOrigin result;
+        if (policy == MalformedHeaderPolicy.STRICT) {
+            try {
+                UriComponents uriComponents = UriComponentsBuilder.fromHttpRequest(request, this.options.getInitialOptions(), this.presentHeaders).build();
+                result = ForwardedOrigin.of(uriComponents);
+            } catch (RuntimeException ex) {
+                metrics.parseFailed(ex);
+                throw ex;
+            }
+        } else {
+            UriComponentsBuilder builder = UriComponentsBuilder.fromHttpRequestLenient(request, this.options.getInitialOptions(), this.presentHeaders);
+            if (!builder.hasMalformedForwardedHeader()) {
+                result = ForwardedOrigin.of(builder.build());
+            } else {
+                metrics.malformedHeader();
+                result = resolveMalformedOrigin(policy, builder);
+            }
+        }
+        if (timed) {
+            metrics.headersParsed(System.nanoTime() - start);
+        }
+        return result;
+    }
 
-        UrlPathHelper pathHelper = new UrlPathHelper();
-        pathHelper.setUrlDecode(false);
-        pathHelper.setRemoveSemicolonContent(false);
+    private ForwardedOrigin resolveMalformedOrigin(MalformedHeaderPolicy policy, UriComponentsBuilder builder) {
+        switch (policy) {
+            case DEFAULTS:
+                return this.options.getInitialOptions().getDefaultOrigin().resolve(getWrappedRequest());
+            case REJECT:
+                return ForwardedOrigin.MALFORMED;
+            default:
+                // IGNORE: the builder already skipped the malformed values
+                return ForwardedOrigin.of(builder.build());
+        }
+    }
 
-        UriComponents uriComponents = UriComponentsBuilder.fromHttpRequest(request, initialOptions).build();
-        int portFromUri = uriComponents.getPort();
-        uriComponents.getPath();
-        this.scheme = uriComponents.getScheme();
-        this.secure = "https".equals(scheme);
-        this.host = uriComponents.getHost();
-        this.port = (portFromUri == -1 ? (this.secure ? HTTPS_PORT : HTTP_PORT) : portFromUri);
+    /**
+     * Resolves the origin if not done yet.
+     *
+     * @return {@code true} if a forwarded header is malformed and the {@link MalformedHeaderPolicy#REJECT} policy applies
+     */
+    boolean isOriginMalformed() {
+        return getOrigin() == ForwardedOrigin.MALFORMED;
+    }
 
-        String defaultPrefix = null;
-        if (initialOptions.hasDefaults()){
-            defaultPrefix = initialOptions.getDefaultHeaders().get(X_FORWARDED_PREFIX.headerName());
+    private void recordHeaderSource(HttpServletRequest request, ForwardedHeaderMetrics metrics) {
+        if (FORWARDED.isIn(this.presentHeaders) && isNotBlank(request.getHeader(FORWARDED.headerName()))) {
+            metrics.forwardedHeaderUsed();
+        } else if (isPresent(request, X_FORWARDED_PROTO) || isPresent(request, X_FORWARDED_HOST) || isPresent(request, X_FORWARDED_PORT)) {
+            metrics.xForwardedHeadersUsed();
+        }
+        ForwardedHeaderInitialHeaders initialOptions = this.options.getInitialOptions();
+        if (initialOptions.hasDefaults()) {
+            for (String headerName : initialOptions.getDefaultHeaders().keySet()) {
+                ForwardedHeader header = ForwardedHeader.forName(headerName);
+                if (header == null || !isPresent(request, header)) {
+                    metrics.defaultsUsed();
+                    return;
+                }
+            }
         }
-        this.contextPath = adaptFromXForwardedPrefix(request, defaultPrefix, prefixStrategy);
+    }
 
-        this.requestUri = this.contextPath + pathHelper.getPathWithinApplication(request);
-        this.requestUrl = this.scheme + "://" + this.host + (portFromUri == -1 ? "" : (":" + portFromUri)) + this.requestUri;
+    private boolean isPresent(HttpServletRequest request, ForwardedHeader header) {
+        return header.isIn(this.presentHeaders) && request.getHeader(header.headerName()) != null;
     }
 
-    private static String adaptFromXForwardedPrefix(HttpServletRequest request, String defaultPrefix, XForwardedPrefixStrategy prefixStrategy) {
-        String prefix = getForwardedPrefix(request);
-        if (prefix == null) {
-            prefix = defaultPrefix;
+    private HttpServletRequest getWrappedRequest() {
+        return (HttpServletRequest) getRequest();
+    }
+
+    private String resolveContextPath() {
+        String result = this.contextPath;
+        if (result == null) {
+            String defaultPrefix = this.options.getInitialOptions().getDefaultPrefix();
+            String prefix = X_FORWARDED_PREFIX.isIn(this.presentHeaders) ? getForwardedPrefix(getWrappedRequest()) : null;
+            result = adaptFromXForwardedPrefix(getWrappedRequest(), prefix != null ? prefix : defaultPrefix, this.options.getPrefixStrategy());
+            this.contextPath = result;
+        }
+        return result;
+    }
+
+    private String resolveRequestUri() {
+        String result = this.requestUri;
+        if (result == null) {
+            UrlPathHelper pathHelper = new UrlPathHelper();
+            pathHelper.setUrlDecode(false);
+            pathHelper.setRemoveSemicolonContent(false);
+            result = resolveContextPath() + pathHelper.getPathWithinApplication(getWrappedRequest());
+            this.requestUri = result;
+        }
+        return result;
+    }
+
+    private String resolveRequestUrl() {
+        String result = this.requestUrl;
+        if (result == null) {
+            result = getOrigin().appendTo(new StringBuilder()).append(resolveRequestUri()).toString();
+            this.requestUrl = result;
+        }
+        return result;
+    }
+
+    /**
+     * @return client node from "Forwarded: for=" or else "X-Forwarded-For", {@link RemoteNode#NONE} if neither is
+     * present, the client node is not an IP address or remote address resolution is disabled
+     */
+    private RemoteNode resolveRemoteNode() {
+        if (!this.options.isResolveRemoteAddress()) {
+            return RemoteNode.NONE;
         }
+        RemoteNode result = this.remoteNode;
+        if (result == null) {
+            HttpServletRequest request = getWrappedRequest();
+            String node = null;
+            if (FORWARDED.isIn(this.presentHeaders)) {
+                String forwarded = HttpServletRequestUtil.getCombinedHeaderValue(request, FORWARDED.headerName());
+                if (isNotBlank(forwarded)) {
+                    node = ForwardedFor.fromForwarded(forwarded, this.options.getTrustedProxies());
+                }
+            }
+            if (node == null && X_FORWARDED_FOR.isIn(this.presentHeaders)) {
+                String forwardedFor = HttpServletRequestUtil.getCombinedHeaderValue(request, X_FORWARDED_FOR.headerName());
+                if (isNotBlank(forwardedFor)) {
+                    node = ForwardedFor.fromXForwardedFor(forwardedFor, this.options.getTrustedProxies());
+                }
+            }
+            result = node != null ? new RemoteNode(ForwardedFor.host(node), ForwardedFor.port(node)) : RemoteNode.NONE;
+            this.remoteNode = result;
+        }
+        return result;
+    }
+
+    private static String adaptFromXForwardedPrefix(HttpServletRequest request, /*@Nullable*/ String prefix, XForwardedPrefixStrategy prefixStrategy) {
         if (prefix == null) {
             return request.getContextPath();
         }
@@ -97,50 +274,94 @@ class ForwardedHeaderExtractingRequest extends HttpServletRequestWrapper {
 
     /*@Nullable*/
     private static String getForwardedPrefix(HttpServletRequest request) {
-        String prefix = HttpServletRequestUtil.getHeaders(request).getFirst(X_FORWARDED_PREFIX.headerName());
-        if (isNotBlank(prefix)) {
-            prefix = HttpServletRequestUtil.getFirstValueToken(prefix, ",");
-            while (prefix.endsWith(PATH_DELIMITER_STRING)) {
-                prefix = prefix.substring(0, prefix.length() - 1);
-            }
+        return trimForwardedPrefix(request.getHeader(X_FORWARDED_PREFIX.headerName()));
+    }
+
+    /**
+     * @param prefix raw "X-Forwarded-Prefix" value
+     * @return the first value with trailing slashes removed
+     */
+    /*@Nullable*/
+    static String trimForwardedPrefix(/*@Nullable*/ String prefix) {
+        if (!isNotBlank(prefix)) {
+            return prefix;
+        }
+        String result = HttpServletRequestUtil.getFirstValueToken(prefix, ",");
+        int end = result.length();
+        while (end > 0 && result.charAt(end - 1) == PATH_DELIMITER) {
+            end--;
         }
-        return prefix;
+        return result.substring(0, end);
     }
 
     @Override
     /*@Nullable*/
     public String getScheme() {
-        return this.scheme;
+        return getOrigin().getScheme();
     }
 
     @Override
     /*@Nullable*/
     public String getServerName() {
-        return this.host;
+        return getOrigin().getHost();
     }
 
     @Override
     public int getServerPort() {
-        return this.port;
+        return getOrigin().getPort();
     }
 
     @Override
     public boolean isSecure() {
-        return this.secure;
+        return getOrigin().isSecure();
+    }
+
+    @Override
+    public String getRemoteAddr() {
+        RemoteNode node = resolveRemoteNode();
+        return node != RemoteNode.NONE ? node.host : super.getRemoteAddr();
+    }
+
+    @Override
+    public String getRemoteHost() {
+        RemoteNode node = resolveRemoteNode();
+        return node != RemoteNode.NONE ? node.host : super.getRemoteHost();
+    }
+
+    @Override
+    public int getRemotePort() {
+        RemoteNode node = resolveRemoteNode();
+        return node != RemoteNode.NONE ? node.port : super.getRemotePort();
     }
 
     @Override
     public String getContextPath() {
-        return this.contextPath;
+        return resolveContextPath();
     }
 
     @Override
     public String getRequestURI() {
-        return this.requestUri;
+        return resolveRequestUri();
     }
 
     @Override
     public StringBuffer getRequestURL() {
-        return new StringBuffer(this.requestUrl);
+        return new StringBuffer(resolveRequestUrl());
+    }
+
+    /**
+     * Client address and port as forwarded by the proxies.
+     */
+    private static final class RemoteNode {
+        private static final RemoteNode NONE = new RemoteNode(null, 0);
+
+        /*@Nullable*/
+        private final String host;
+        private final int port;
+
+        private RemoteNode(/*@Nullable*/ String host, int port) {
+            this.host = host;
+            this.port = port;
+        }
     }
 }
@@ -15,7 +15,9 @@
  */
 package de.qaware.xff.filter;
 
+import de.qaware.xff.util.uri.UriComponents;
 import de.qaware.xff.util.uri.UriComponentsBuilder;
+import org.apache.commons.lang3.StringUtils;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -31,29 +33,75 @@ class ForwardedHeaderExtractingResponse extends HttpServletResponseWrapper {
 
     private final HttpServletRequest request;
 
+    private final ForwardedHeaderMetrics metrics;
+
+    /*@Nullable*/
+    private final ForwardedRedirectCache redirectCache;
+
     public ForwardedHeaderExtractingResponse(HttpServletResponse response, HttpServletRequest request) {
+        this(response, request, ForwardedHeaderMetrics.NOOP);
+    }
+
+    public ForwardedHeaderExtractingResponse(HttpServletResponse response, HttpServletRequest request, ForwardedHeaderMetrics metrics) {
+        this(response, request, metrics, null);
+    }
+
+    /**
+     * @param response      the response to wrap
+     * @param request       the (forwarded) request
+     * @param metrics       metrics listener
+     * @param redirectCache cache of rewritten locations, may be {@code null}
+     */
+    public ForwardedHeaderExtractingResponse(HttpServletResponse response, HttpServletRequest request, ForwardedHeaderMetrics metrics,
+                                             /*@Nullable*/ ForwardedRedirectCache redirectCache) {
         super(response);
         this.request = request;
+        this.metrics = metrics;
+        this.redirectCache = redirectCache;
     }
 
     @Override
     public void sendRedirect(String location) throws IOException {
-        UriComponentsBuilder builder = UriComponentsBuilder.fromUriString(location);
+        if (metrics.isTimingEnabled()) {
+            long start = System.nanoTime();
+            String result = rewriteLocation(location);
+            metrics.redirectRewritten(System.nanoTime() - start);
+            super.sendRedirect(result);
+        } else {
+            super.sendRedirect(rewriteLocation(location));
+        }
+    }
 
+    private String rewriteLocation(String location) {
         // Absolute location
-        if (builder.build().getScheme() != null) {
-            super.sendRedirect(location);
-            return;
+        if (hasScheme(location)) {
+            return location;
         }
 
         // Network-path reference
         if (location.startsWith("//")) {
             String scheme = this.request.getScheme();
-            super.sendRedirect(builder.scheme(scheme).toUriString());
-            return;
+            return UriComponentsBuilder.fromUriString(location).scheme(scheme).toUriString();
         }
 
+        ForwardedOrigin origin = this.request instanceof ForwardedHeaderExtractingRequest ?
+                ((ForwardedHeaderExtractingRequest) this.request).getOrigin() : null;
+        if (origin == null || origin.getHost() == null) {
+            return rewriteRelativeLocation(null, location);
+        }
+        if (this.redirectCache != null && this.redirectCache.isCacheable(location)) {
+            ForwardedRedirectKey key = new ForwardedRedirectKey(origin, this.request.getRequestURI(), location);
+            return this.redirectCache.computeIfAbsent(key, k -> rewriteRelativeLocation(origin, location));
+        }
+        return rewriteRelativeLocation(origin, location);
+    }
 
+    /**
+     * @param origin   resolved origin, {@code null} to take it from the request via {@link UriComponentsBuilder}
+     * @param location location relative to the servlet container root or to the current request
+     * @return absolute location
+     */
+    private String rewriteRelativeLocation(/*@Nullable*/ ForwardedOrigin origin, String location) {
         String fragment = null;
         int fragmentIndex = location.indexOf('#');
         if (fragmentIndex != -1) {
@@ -76,14 +124,66 @@ class ForwardedHeaderExtractingResponse extends HttpServletResponseWrapper {
         String path = (location.startsWith(FOLDER_SEPARATOR) ? location :
                 applyRelativePath(this.request.getRequestURI(), location));
 
-        String result = UriComponentsBuilder
-                .fromHttpRequest(this.request)
-                .replacePath(path)
-                .replaceQuery(query)
-                .fragment(fragment)
-                .build().normalize().toUriString();
+        if (origin == null) {
+            return UriComponentsBuilder
+                    .fromHttpRequest(this.request)
+                    .replacePath(path)
+                    .replaceQuery(query)
+                    .fragment(fragment)
+                    .build().normalize().toUriString();
+        }
 
-        super.sendRedirect(result);
+        // Origin already resolved by the request wrapper: no need to parse anything again
+        StringBuilder url = origin.appendTo(new StringBuilder(64));
+        // Same result as replacePath(path) followed by normalize(): "//" collapsed first, then dot segments removed
+        String normalizedPath = UriComponents.normalizePath(collapseDuplicateSlashes(path));
+        if (StringUtils.isNotBlank(normalizedPath)) {
+            if (normalizedPath.charAt(0) != UriComponents.PATH_DELIMITER) {
+                url.append(UriComponents.PATH_DELIMITER);
+            }
+            url.append(normalizedPath);
+        }
+        if (StringUtils.isNotEmpty(query)) {
+            url.append('?').append(query);
+        }
+        if (StringUtils.isNotEmpty(fragment)) {
+            url.append('#').append(fragment);
+        }
+        return url.toString();
+    }
+
+    /**
+     * Same as a non empty scheme in a URI reference: a ':' before any '/', '?' or '#'.
+     */
+    private static boolean hasScheme(String location) {
+        for (int i = 0; i < location.length(); i++) {
+            char c = location.charAt(i);
+            if (c == ':') {
+                return i > 0;
+            }
+            if (c == '/' || c == '?' || c == '#') {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Replace each run of consecutive '/' with a single one, as the path builder does.
+     */
+    private static String collapseDuplicateSlashes(String path) {
+        int index = path.indexOf("//");
+        if (index == -1) {
+            return path;
+        }
+        StringBuilder collapsed = new StringBuilder(path.length()).append(path, 0, index + 1);
+        for (int i = index + 2; i < path.length(); i++) {
+            char c = path.charAt(i);
+            if (c != UriComponents.PATH_DELIMITER || collapsed.charAt(collapsed.length() - 1) != UriComponents.PATH_DELIMITER) {
+                collapsed.append(c);
+            }
+        }
+        return collapsed.toString();
     }
 
     private static String applyRelativePath(String path, String relativePath) {
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2002-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.qaware.xff.filter;
+
+import de.qaware.xff.util.BoundedConcurrentCache;
+import de.qaware.xff.util.CidrTrie;
+
+/**
+ * Immutable configuration of the {@link ForwardedHeaderFilter} passed on to every {@link ForwardedHeaderExtractingRequest}.
+ */
+final class ForwardedHeaderExtractionOptions {
+
+    private final ForwardedHeaderInitialHeaders initialOptions;
+
+    private final XForwardedPrefixStrategy prefixStrategy;
+
+    /*@Nullable*/
+    private final BoundedConcurrentCache<ForwardedOriginKey, ForwardedOrigin> originCache;
+
+    /*@Nullable*/
+    private final CidrTrie trustedProxies;
+
+    private final ForwardedHeaderMetrics metrics;
+
+    private final MalformedHeaderPolicy malformedHeaderPolicy;
+
+    private final boolean resolveRemoteAddress;
+
+    /**
+     * @param initialOptions default values for absent forwarded headers
+     * @param prefixStrategy how to apply X-Forwarded-Prefix
+     * @param originCache    cache for resolved origins, {@code null} to always resolve
+     * @param trustedProxies proxies to skip when resolving the client address, {@code null} to trust the peer only
+     * @param metrics        metrics listener
+     */
+    ForwardedHeaderExtractionOptions(ForwardedHeaderInitialHeaders initialOptions, XForwardedPrefixStrategy prefixStrategy,
+                                     /*@Nullable*/ BoundedConcurrentCache<ForwardedOriginKey, ForwardedOrigin> originCache,
+                                     /*@Nullable*/ CidrTrie trustedProxies,
+                                     ForwardedHeaderMetrics metrics) {
+        this(initialOptions, prefixStrategy, originCache, trustedProxies, metrics, MalformedHeaderPolicy.STRICT);
+    }
+
+    /**
+     * @param initialOptions        default values for absent forwarded headers
+     * @param prefixStrategy        how to apply X-Forwarded-Prefix
+     * @param originCache           cache for resolved origins, {@code null} to always resolve
+     * @param trustedProxies        proxies to skip when resolving the client address, {@code null} to trust the peer only
+     * @param metrics               metrics listener
+     * @param malformedHeaderPolicy how to handle malformed forwarded values
+     */
+    ForwardedHeaderExtractionOptions(ForwardedHeaderInitialHeaders initialOptions, XForwardedPrefixStrategy prefixStrategy,
+                                     /*@Nullable*/ BoundedConcurrentCache<ForwardedOriginKey, ForwardedOrigin> originCache,
+                                     /*@Nullable*/ CidrTrie trustedProxies,
+                                     ForwardedHeaderMetrics metrics,
+                                     MalformedHeaderPolicy malformedHeaderPolicy) {
+        this(initialOptions, prefixStrategy, originCache, trustedProxies, metrics, malformedHeaderPolicy, false);
+    }
+
+    /**
+     * @param initialOptions        default values for absent forwarded headers
+     * @param prefixStrategy        how to apply X-Forwarded-Prefix
+     * @param originCache           cache for resolved origins, {@code null} to always resolve
+     * @param trustedProxies        proxies to skip when resolving the client address, {@code null} to trust the peer only
+     * @param metrics               metrics listener
+     * @param malformedHeaderPolicy how to handle malformed forwarded values
+     * @param resolveRemoteAddress  whether to take the client address from "Forwarded: for=" and "X-Forwarded-For"
+     */
+    @SuppressWarnings("squid:S00107")// long parameter list-> immutable value object
+    ForwardedHeaderExtractionOptions(ForwardedHeaderInitialHeaders initialOptions, XForwardedPrefixStrategy prefixStrategy,
+                                     /*@Nullable*/ BoundedConcurrentCache<ForwardedOriginKey, ForwardedOrigin> originCache,
+                                     /*@Nullable*/ CidrTrie trustedProxies,
+                                     ForwardedHeaderMetrics metrics,
+                                     MalformedHeaderPolicy malformedHeaderPolicy,
+                                     boolean resolveRemoteAddress) {
+        this.initialOptions = initialOptions;
+        this.prefixStrategy = prefixStrategy;
+        this.originCache = originCache;
+        this.trustedProxies = trustedProxies;
+        this.metrics = metrics;
+        this.malformedHeaderPolicy = malformedHeaderPolicy;
+        this.resolveRemoteAddress = resolveRemoteAddress;
+    }
+
+    ForwardedHeaderInitialHeaders getInitialOptions() {
+        return initialOptions;
+    }
+
+    XForwardedPrefixStrategy getPrefixStrategy() {
+        return prefixStrategy;
+    }
+
+    /*@Nullable*/
+    BoundedConcurrentCache<ForwardedOriginKey, ForwardedOrigin> getOriginCache() {
+        return originCache;
+    }
+
+    /*@Nullable*/
+    CidrTrie getTrustedProxies() {
+        return trustedProxies;
+    }
+
+    ForwardedHeaderMetrics getMetrics() {
+        return metrics;
+    }
+
+    MalformedHeaderPolicy getMalformedHeaderPolicy() {
+        return malformedHeaderPolicy;
+    }
+
+    boolean isResolveRemoteAddress() {
+        return resolveRemoteAddress;
+    }
+
+    /**
+     * @param newMetrics the metrics listener
+     * @return a copy of these options using the given metrics listener
+     */
+    ForwardedHeaderExtractionOptions withMetrics(ForwardedHeaderMetrics newMetrics) {
+        return new ForwardedHeaderExtractionOptions(initialOptions, prefixStrategy, originCache, trustedProxies, newMetrics, malformedHeaderPolicy,
+                resolveRemoteAddress);
+    }
+}
@@ -15,8 +15,13 @@
  */
 package de.qaware.xff.filter;
 
+import de.qaware.xff.util.BoundedConcurrentCache;
+import de.qaware.xff.util.CidrTrie;
 import de.qaware.xff.util.ForwardedHeader;
+import de.qaware.xff.util.HttpServletRequestUtil;
 import de.qaware.xff.util.WebUtilsConstants;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.Validate;
 
 import javax.servlet.FilterChain;
 import javax.servlet.FilterConfig;
@@ -24,9 +29,11 @@ import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
-import java.util.Enumeration;
+import java.util.Arrays;
 import java.util.Optional;
 
+import static de.qaware.xff.util.ForwardedHeader.ALL_HEADERS_MASK;
+import static de.qaware.xff.util.ForwardedHeader.X_FORWARDED_FOR;
 import static java.lang.Boolean.parseBoolean;
 
 /**
@@ -39,10 +46,15 @@ import static java.lang.Boolean.parseBoolean;
  * {@link HttpServletResponse#sendRedirect(String) sendRedirect(String)}.
  * In effect the wrapped request and response reflect the client-originated
  * protocol and address.
+ * <p>With {@link #RESOLVE_REMOTE_ADDRESS} also
+ * {@link HttpServletRequest#getRemoteAddr() getRemoteAddr()},
+ * {@link HttpServletRequest#getRemoteHost() getRemoteHost()} and
+ * {@link HttpServletRequest#getRemotePort() getRemotePort()} are overridden.
  * <p>
  * <p><strong>Note:</strong> This filter can also be used in a
  * {@link HeaderProcessingStrategy#DONT_EVAL_AND_REMOVE } mode where "Forwarded" and "X-Forwarded-*"
  * headers are only eliminated without being used.
+ * <p>Behind a single known proxy, {@link #STATIC_ORIGIN} replaces header evaluation by a fixed origin.
  *
  * @author Michael Frank
  * @author Rossen Stoyanchev
@@ -85,6 +97,106 @@ public class ForwardedHeaderFilter extends OncePerRequestFilter {
      */
     public static final String X_FORWARDED_PREFIX_STRATEGY = "xForwardedPrefixStrategy";
 
+    /**
+     * Maximum number of resolved origins (scheme, host and port) to cache, keyed by the raw forwarded headers.
+     * <p>Useful if the forwarded headers are set by a small number of proxies and thus only take few distinct values.
+     * The cache is bounded: entries are evicted on collision so arbitrary client supplied values can't exhaust memory.
+     * Disabled by default (0).
+     */
+    public static final String ORIGIN_CACHE_SIZE = "originCacheSize";
+
+    /**
+     * Maximum number of rewritten redirect locations to cache, keyed by the resolved origin, the directory of the
+     * current request (for locations relative to it) and the location passed to
+     * {@link HttpServletResponse#sendRedirect(String)}.
+     * <p>Useful if the application redirects to a small set of relative locations (e.g. "/login").
+     * The cache is bounded: entries are evicted on collision. Disabled by default (0).
+     * Not used with {@link #ENABLE_RELATIVE_REDIRECTS_INIT_PARAM}.
+     */
+    public static final String REDIRECT_CACHE_SIZE = "redirectCacheSize";
+
+    /**
+     * Set to true to also cache redirect locations with a query string or fragment, see {@link #REDIRECT_CACHE_SIZE}.
+     * Default false, as those are typically unique per redirect.
+     */
+    public static final String REDIRECT_CACHE_INCLUDE_QUERY = "redirectCacheIncludeQuery";
+
+    /**
+     * Comma or whitespace separated list of IPv4/IPv6 addresses or ranges in CIDR notation
+     * (e.g. "10.0.0.0/8, 2001:db8::/32, 192.0.2.1") of the proxies whose forwarded headers are trusted.
+     * <p>If set, forwarded headers are only evaluated if {@link HttpServletRequest#getRemoteAddr()} is within
+     * one of the ranges. Headers of any other peer are ignored, and removed if the
+     * {@link HeaderProcessingStrategy} removes headers. If not set, all peers are trusted.
+     */
+    public static final String TRUSTED_PROXIES = "trustedProxies";
+
+    /**
+     * Set to true to take {@link HttpServletRequest#getRemoteAddr()}, {@link HttpServletRequest#getRemoteHost()} and
+     * {@link HttpServletRequest#getRemotePort()} from the "for" parameters of "Forwarded" or else from
+     * "X-Forwarded-For". Default false: "X-Forwarded-For" is then neither evaluated nor removed.
+     * <p>The nodes are walked from right to left and the first one which is not in {@link #TRUSTED_PROXIES} is the
+     * client. Without {@link #TRUSTED_PROXIES} this is the rightmost node, the one added by the peer. A client node
+     * which is not an IP address, e.g. "unknown" or "_hidden", is not used.
+     */
+    public static final String RESOLVE_REMOTE_ADDRESS = "resolveRemoteAddress";
+
+    /**
+     * Fully qualified name of a {@link ForwardedHeaderMetrics} implementation with a public no-arg constructor,
+     * e.g. {@link LongAdderForwardedHeaderMetrics}. Alternatively use {@link #setMetrics(ForwardedHeaderMetrics)}.
+     * Defaults to {@link ForwardedHeaderMetrics#NOOP}.
+     */
+    public static final String METRICS_CLASS = "metricsClass";
+
+    /**
+     * Fixed public origin as absolute URL, e.g. "https://example.com:8443/prefix", for deployments behind exactly
+     * one known proxy.
+     * <p>If set, scheme, host, port and (if the URL has a path) prefix of every request are taken from this URL,
+     * computed once at init. Forwarded headers sent by the client are never evaluated and always removed;
+     * {@link #HEADER_PROCESSING_STRATEGY}, {@link #TRUSTED_PROXIES} and forwarded header defaults are not used.
+     * The prefix is applied according to {@link #X_FORWARDED_PREFIX_STRATEGY}.
+     */
+    public static final String STATIC_ORIGIN = "staticOrigin";
+
+    /**
+     * Maximum length of each "Forwarded" and "X-Forwarded-*" header, multiple header lines of the same name counted
+     * as one comma separated value. See {@link #HEADER_LIMIT_POLICY} for what happens if a header is longer.
+     * Disabled by default (0).
+     */
+    public static final String MAX_HEADER_LENGTH = "maxHeaderLength";
+
+    /**
+     * Maximum number of comma separated elements (e.g. proxy hops in "Forwarded" or "X-Forwarded-For") of each
+     * forwarded header. See {@link #HEADER_LIMIT_POLICY} for what happens if a header has more.
+     * Disabled by default (0).
+     */
+    public static final String MAX_HEADER_ELEMENTS = "maxHeaderElements";
+
+    /**
+     * Maximum length of the "X-Forwarded-Prefix" header, overrides {@link #MAX_HEADER_LENGTH} for this header.
+     * Disabled by default (0).
+     */
+    public static final String MAX_PREFIX_LENGTH = "maxPrefixLength";
+
+    /**
+     * {@link HeaderLimitPolicy} applied if a forwarded header exceeds {@link #MAX_HEADER_LENGTH},
+     * {@link #MAX_HEADER_ELEMENTS} or {@link #MAX_PREFIX_LENGTH}. The limits are checked before any forwarded header
+     * is parsed, and only if headers are evaluated. Defaults to {@link HeaderLimitPolicy#REJECT}.
+     */
+    public static final String HEADER_LIMIT_POLICY = "headerLimitPolicy";
+
+    /**
+     * {@link MalformedHeaderPolicy} applied if a forwarded header contains a malformed value, e.g. a non numeric port.
+     * Defaults to {@link MalformedHeaderPolicy#STRICT}, which throws on first access of the forwarded origin.
+     * With {@link MalformedHeaderPolicy#REJECT} the origin is resolved before the request is passed on.
+     */
+    public static final String MALFORMED_HEADER_POLICY = "malformedHeaderPolicy";
+
+    /**
+     * Request attribute passing the result of {@link #scanRequest} from the overloads taking it to the
+     * overridable {@link #shouldNotFilter(HttpServletRequest)} and
+     * {@link #doFilterInternal(HttpServletRequest, HttpServletResponse, FilterChain)}.
+     */
+    private static final String PRESENT_HEADERS_ATTRIBUTE = ForwardedHeaderFilter.class.getName() + ".PRESENT_HEADERS";
 
     private boolean relativeRedirects;
     private XForwardedPrefixStrategy prefixStrategy;
@@ -92,6 +204,37 @@ public class ForwardedHeaderFilter extends OncePerRequestFilter {
 
     private ForwardedHeaderInitialHeaders initialOptions;
 
+    private boolean staticOrigin;
+
+    /*@Nullable*/
+    private BoundedConcurrentCache<ForwardedOriginKey, ForwardedOrigin> originCache;
+
+    /*@Nullable*/
+    private ForwardedRedirectCache redirectCache;
+
+    /*@Nullable*/
+    private CidrTrie trustedProxies;
+
+    /*@Nullable*/
+    private ForwardedHeaderLimits headerLimits;
+
+    private MalformedHeaderPolicy malformedHeaderPolicy;
+
+    private ForwardedHeaderMetrics metrics = ForwardedHeaderMetrics.NOOP;
+
+    /**
+     * Whether {@link #setMetrics} was called, which takes precedence over {@link #METRICS_CLASS}.
+     */
+    private boolean metricsSet;
+
+    private ForwardedHeaderExtractionOptions extractionOptions;
+
+    /**
+     * {@link ForwardedHeader#mask() Mask} of the forwarded headers this filter evaluates and removes,
+     * "X-Forwarded-For" only with {@link #RESOLVE_REMOTE_ADDRESS}.
+     */
+    private int handledHeaders = ALL_HEADERS_MASK & ~X_FORWARDED_FOR.mask();
+
     @Override
     public void init(FilterConfig filterConfig) throws ServletException {
         super.init(filterConfig);
@@ -105,44 +248,247 @@ public class ForwardedHeaderFilter extends OncePerRequestFilter {
                 .map(XForwardedPrefixStrategy::valueOf)//
                 .orElse(XForwardedPrefixStrategy.REPLACE);
 
-        initialOptions = new ForwardedHeaderInitialHeaders(filterConfig);
+        String staticOriginUrl = filterConfig.getInitParameter(STATIC_ORIGIN);
+        staticOrigin = staticOriginUrl != null;
+        initialOptions = staticOrigin ?
+                ForwardedHeaderInitialHeaders.forStaticOrigin(staticOriginUrl) :
+                new ForwardedHeaderInitialHeaders(filterConfig);
+
+        int originCacheSize = Optional.ofNullable(filterConfig.getInitParameter(ORIGIN_CACHE_SIZE))//
+                .map(Integer::parseInt)//
+                .orElse(0);
+        originCache = originCacheSize > 0 ? new BoundedConcurrentCache<>(originCacheSize) : null;
+
+        int redirectCacheSize = Optional.ofNullable(filterConfig.getInitParameter(REDIRECT_CACHE_SIZE))//
+                .map(Integer::parseInt)//
+                .orElse(0);
+        redirectCache = redirectCacheSize > 0 && !relativeRedirects ?
+                new ForwardedRedirectCache(redirectCacheSize, parseBoolean(filterConfig.getInitParameter(REDIRECT_CACHE_INCLUDE_QUERY))) : null;
+
+        trustedProxies = Optional.ofNullable(filterConfig.getInitParameter(TRUSTED_PROXIES))//
+                .map(cidrs -> new CidrTrie(Arrays.asList(StringUtils.split(cidrs, ", \t\r\n"))))//
+                .orElse(null);
+
+        ForwardedHeaderLimits limits = new ForwardedHeaderLimits(
+                parseLimit(filterConfig, MAX_HEADER_LENGTH),
+                parseLimit(filterConfig, MAX_HEADER_ELEMENTS),
+                parseLimit(filterConfig, MAX_PREFIX_LENGTH),
+                Optional.ofNullable(filterConfig.getInitParameter(HEADER_LIMIT_POLICY))//
+                        .map(HeaderLimitPolicy::valueOf)//
+                        .orElse(HeaderLimitPolicy.REJECT));
+        headerLimits = limits.isEnabled() ? limits : null;
+
+        boolean resolveRemoteAddress = parseBoolean(filterConfig.getInitParameter(RESOLVE_REMOTE_ADDRESS));
+        handledHeaders = resolveRemoteAddress ? ALL_HEADERS_MASK : ALL_HEADERS_MASK & ~X_FORWARDED_FOR.mask();
+
+        malformedHeaderPolicy = Optional.ofNullable(filterConfig.getInitParameter(MALFORMED_HEADER_POLICY))//
+                .map(MalformedHeaderPolicy::valueOf)//
+                .orElse(MalformedHeaderPolicy.STRICT);
+
+        String metricsClass = filterConfig.getInitParameter(METRICS_CLASS);
+        if (metricsClass != null && !metricsSet) {
+            metrics = instantiateMetrics(metricsClass);
+        }
+
+        extractionOptions = new ForwardedHeaderExtractionOptions(initialOptions, prefixStrategy, originCache, trustedProxies, metrics,
+                malformedHeaderPolicy, resolveRemoteAddress);
+    }
+
+    private static int parseLimit(FilterConfig filterConfig, String name) {
+        return Optional.ofNullable(filterConfig.getInitParameter(name))//
+                .map(Integer::parseInt)//
+                .orElse(0);
+    }
+
+    private static ForwardedHeaderMetrics instantiateMetrics(String className) throws ServletException {
+        try {
+            Class<?> metricsClass = Class.forName(className.trim(), true, Thread.currentThread().getContextClassLoader());
+            return (ForwardedHeaderMetrics) metricsClass.getConstructor().newInstance();
+        } catch (ReflectiveOperationException | ClassCastException ex) {
+            throw new ServletException("Could not instantiate " + METRICS_CLASS + " '" + className + "'", ex);
+        }
+    }
+
+    /**
+     * Set the metrics listener, overrides {@link #METRICS_CLASS}. May be called before or after
+     * {@link #init(FilterConfig)}.
+     *
+     * @param metrics the metrics listener
+     */
+    public void setMetrics(ForwardedHeaderMetrics metrics) {
+        this.metrics = Validate.notNull(metrics, "metrics must not be null");
+        this.metricsSet = true;
+        if (extractionOptions != null) {
+            extractionOptions = extractionOptions.withMetrics(metrics);
+        }
+    }
+
+    /**
+     * @return the metrics listener, {@link ForwardedHeaderMetrics#NOOP} if not configured
+     */
+    public ForwardedHeaderMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return number of origins taken from the origin cache, 0 if the cache is disabled
+     * @see #ORIGIN_CACHE_SIZE
+     */
+    public long getOriginCacheHitCount() {
+        return originCache != null ? originCache.getHitCount() : 0;
+    }
+
+    /**
+     * @return number of origins which had to be resolved despite an enabled origin cache, 0 if the cache is disabled
+     * @see #ORIGIN_CACHE_SIZE
+     */
+    public long getOriginCacheMissCount() {
+        return originCache != null ? originCache.getMissCount() : 0;
+    }
+
+    /**
+     * @return number of redirect locations taken from the redirect cache, 0 if the cache is disabled
+     * @see #REDIRECT_CACHE_SIZE
+     */
+    public long getRedirectCacheHitCount() {
+        return redirectCache != null ? redirectCache.getHitCount() : 0;
+    }
+
+    /**
+     * @return number of cacheable redirect locations which had to be rewritten, 0 if the cache is disabled
+     * @see #REDIRECT_CACHE_SIZE
+     */
+    public long getRedirectCacheMissCount() {
+        return redirectCache != null ? redirectCache.getMissCount() : 0;
+    }
+
+    /**
+     * @return {@link ForwardedHeader#mask() mask} of the forwarded headers present in the request and handled by
+     * this filter
+     */
+    @Override
+    protected int scanRequest(HttpServletRequest request) {
+        return HttpServletRequestUtil.getForwardedHeaderMask(request) & handledHeaders;
+    }
+
+    /**
+     * Hands the scan result on to {@link #shouldNotFilter(HttpServletRequest)}, so subclasses overriding it are
+     * still asked.
+     */
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request, int presentHeaders) throws ServletException {
+        request.setAttribute(PRESENT_HEADERS_ATTRIBUTE, presentHeaders);
+        boolean skip = shouldNotFilter(request);
+        if (skip) {
+            request.removeAttribute(PRESENT_HEADERS_ATTRIBUTE);
+        }
+        return skip;
     }
 
     @Override
     protected boolean shouldNotFilter(HttpServletRequest request) throws ServletException {
-        if (initialOptions.hasDefaults()){
+        if (getPresentHeaders(request) != 0 || initialOptions.hasDefaults()) {
             return false;
         }
-        Enumeration<String> names = request.getHeaderNames();
-        while (names.hasMoreElements()) {
-            String name = names.nextElement();
-            if (ForwardedHeader.isForwardedHeader(name)) {
-                return false;
-            }
-        }
+        metrics.requestSkipped();
         return true;
     }
 
+    /**
+     * Hands the scan result on to {@link #doFilterInternal(HttpServletRequest, HttpServletResponse, FilterChain)},
+     * so subclasses overriding it are still invoked.
+     */
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain, int presentHeaders) throws ServletException, IOException {
+        request.setAttribute(PRESENT_HEADERS_ATTRIBUTE, presentHeaders);
+        doFilterInternal(request, response, filterChain);
+    }
 
+    @Override
     protected void doFilterInternal(HttpServletRequest originalRequest, HttpServletResponse originalResponse, FilterChain filterChain) throws ServletException, IOException {
+        int presentHeaders = getPresentHeaders(originalRequest);
+        originalRequest.removeAttribute(PRESENT_HEADERS_ATTRIBUTE);
         HttpServletRequest request = originalRequest;
         HttpServletResponse response = originalResponse;
 
-        if (headerProcessingStrategy.isEvaluateHeaders()) {
-            request = new ForwardedHeaderExtractingRequest(request, initialOptions, prefixStrategy);
+        if (staticOrigin) {
+            doFilterStaticOrigin(request, response, filterChain, presentHeaders);
+            return;
+        }
+
+        boolean evaluate = headerProcessingStrategy.isEvaluateHeaders() && isTrustedProxy(request);
+        boolean remove = headerProcessingStrategy.isRemoveHeaders() && presentHeaders != 0;
+        int evaluatedHeaders = presentHeaders;
+
+        if (evaluate && presentHeaders != 0 && headerLimits != null) {
+            ForwardedHeader exceeded = headerLimits.findExceeded(request, presentHeaders);
+            if (exceeded != null) {
+                metrics.headerLimitExceeded(exceeded);
+                HeaderLimitPolicy policy = headerLimits.getPolicy();
+                if (policy == HeaderLimitPolicy.REJECT) {
+                    response.sendError(HttpServletResponse.SC_BAD_REQUEST);
+                    return;
+                } else if (policy == HeaderLimitPolicy.STRIP) {
+                    evaluatedHeaders = 0;
+                    remove = true;
+                } else {
+                    evaluate = false;
+                }
+            }
+        }
+
+        if (evaluate) {
+            ForwardedHeaderExtractingRequest extractingRequest = new ForwardedHeaderExtractingRequest(request, extractionOptions, evaluatedHeaders);
+            if (malformedHeaderPolicy == MalformedHeaderPolicy.REJECT && evaluatedHeaders != 0 && extractingRequest.isOriginMalformed()) {
+                response.sendError(HttpServletResponse.SC_BAD_REQUEST);
+                return;
+            }
+            request = extractingRequest;
             if (relativeRedirects) {
                 response = RelativeRedirectResponseWrapper.wrapIfNecessary(response, WebUtilsConstants.SEE_OTHER);
             } else {
-                response = new ForwardedHeaderExtractingResponse(response, request);
+                response = new ForwardedHeaderExtractingResponse(response, request, metrics, redirectCache);
             }
         }
 
-        if (headerProcessingStrategy.isRemoveHeaders()) {
-            request = new ForwardedHeaderRemovingRequest(request);
+        if (remove) {
+            request = new ForwardedHeaderRemovingRequest(request, handledHeaders);
         }
 
         filterChain.doFilter(request, response);
 
     }
 
+    /**
+     * Client supplied forwarded headers are hidden and never looked up: the origin comes from the precompiled
+     * {@link #STATIC_ORIGIN} only.
+     */
+    private void doFilterStaticOrigin(HttpServletRequest originalRequest, HttpServletResponse originalResponse, FilterChain filterChain, int presentHeaders) throws ServletException, IOException {
+        HttpServletRequest request = originalRequest;
+        if (presentHeaders != 0) {
+            request = new ForwardedHeaderRemovingRequest(request, handledHeaders);
+        }
+        request = new ForwardedHeaderExtractingRequest(request, extractionOptions, 0);
+        HttpServletResponse response = relativeRedirects ?
+                RelativeRedirectResponseWrapper.wrapIfNecessary(originalResponse, WebUtilsConstants.SEE_OTHER) :
+                new ForwardedHeaderExtractingResponse(originalResponse, request, metrics, redirectCache);
+        filterChain.doFilter(request, response);
+    }
+
+    /**
+     * @return the scan result passed on by the overloads taking it, otherwise scans the request
+     */
+    private int getPresentHeaders(HttpServletRequest request) throws ServletException {
+        Object presentHeaders = request.getAttribute(PRESENT_HEADERS_ATTRIBUTE);
+        return presentHeaders != null ? (Integer) presentHeaders : scanRequest(request);
+    }
+
+    private boolean isTrustedProxy(HttpServletRequest request) {
+        if (trustedProxies == null || trustedProxies.contains(request.getRemoteAddr())) {
+            return true;
+        }
+        metrics.untrustedProxy();
+        return false;
+    }
+
 }
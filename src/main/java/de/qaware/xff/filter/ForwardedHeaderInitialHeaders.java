@@ -16,31 +16,105 @@
  package de.qaware.xff.filter;
 
 import de.qaware.xff.util.ForwardedHeader;
+import de.qaware.xff.util.uri.UriComponents;
+import de.qaware.xff.util.uri.UriComponentsBuilder;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.Validate;
 
 import javax.servlet.FilterConfig;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.Map;
 
+import static de.qaware.xff.util.ForwardedHeader.X_FORWARDED_FOR;
+import static de.qaware.xff.util.ForwardedHeader.X_FORWARDED_HOST;
+import static de.qaware.xff.util.ForwardedHeader.X_FORWARDED_PREFIX;
+import static de.qaware.xff.util.ForwardedHeader.X_FORWARDED_PROTO;
+
 public class ForwardedHeaderInitialHeaders {
 
     Map<String, String> initialHeaders = new HashMap<>();
+
+    private final ForwardedDefaultOrigin defaultOrigin;
+
+    /*@Nullable*/
+    private final String defaultPrefix;
+
     public boolean hasDefaults() {
         return initialHeaders.size() > 0;
     }
 
+    /**
+     * @param config the filter config, init params named like a forwarded header are used as defaults
+     * @throws IllegalArgumentException if a default is invalid, e.g. a port is not a number
+     */
     public ForwardedHeaderInitialHeaders(FilterConfig config) {
+        this(getForwardedHeaderParams(config));
+    }
+
+    private ForwardedHeaderInitialHeaders(Map<String, String> defaults) {
+        String prefix = null;
+        for (Map.Entry<String, String> entry : defaults.entrySet()) {
+            initialHeaders.put(entry.getKey(), entry.getValue());
+            if (ForwardedHeader.forName(entry.getKey()) == X_FORWARDED_PREFIX) {
+                prefix = entry.getValue();
+            }
+        }
+        this.defaultOrigin = ForwardedDefaultOrigin.of(initialHeaders);
+        this.defaultPrefix = ForwardedHeaderExtractingRequest.trimForwardedPrefix(prefix);
+    }
+
+    /**
+     * Defaults equivalent to a fixed public origin, see {@link ForwardedHeaderFilter#STATIC_ORIGIN}.
+     *
+     * @param staticOrigin absolute http(s) URL, e.g. "https://example.com:8443/prefix"
+     * @return defaults for scheme, host, port and (if the URL has a path) prefix
+     * @throws IllegalArgumentException if the URL is not an absolute http(s) URL
+     */
+    static ForwardedHeaderInitialHeaders forStaticOrigin(String staticOrigin) {
+        UriComponents uri = UriComponentsBuilder.fromHttpUrl(staticOrigin.trim()).build();
+        String scheme = uri.getScheme();
+        Validate.isTrue("http".equals(scheme) || "https".equals(scheme), "Static origin must be an http(s) URL: %s", staticOrigin);
+        Validate.isTrue(StringUtils.isNotEmpty(uri.getHost()), "Static origin must contain a host: %s", staticOrigin);
+        Map<String, String> defaults = new HashMap<>();
+        defaults.put(X_FORWARDED_PROTO.headerName(), scheme);
+        defaults.put(X_FORWARDED_HOST.headerName(), uri.getPort() != -1 ? uri.getHost() + ':' + uri.getPort() : uri.getHost());
+        if (StringUtils.isNotEmpty(uri.getPath())) {
+            defaults.put(X_FORWARDED_PREFIX.headerName(), uri.getPath());
+        }
+        return new ForwardedHeaderInitialHeaders(defaults);
+    }
+
+    private static Map<String, String> getForwardedHeaderParams(FilterConfig config) {
+        Map<String, String> params = new HashMap<>();
         Enumeration<String> names = config.getInitParameterNames();
         while (names.hasMoreElements()) {
             String name = names.nextElement();
-            if (ForwardedHeader.isForwardedHeader(name)) {
-                String headerValue = config.getInitParameter(name);
-                initialHeaders.put(name, headerValue);
+            ForwardedHeader header = ForwardedHeader.forName(name);
+            // the client address has no default
+            if (header != null && header != X_FORWARDED_FOR) {
+                params.put(name, config.getInitParameter(name));
             }
         }
+        return params;
     }
 
     public Map<String, String> getDefaultHeaders() {
         return initialHeaders;
     }
-}
\ No newline at end of file
+
+    /**
+     * @return scheme, host and port defaults, parsed once
+     */
+    ForwardedDefaultOrigin getDefaultOrigin() {
+        return defaultOrigin;
+    }
+
+    /**
+     * @return default for "X-Forwarded-Prefix" with trailing slashes removed, {@code null} if not configured
+     */
+    /*@Nullable*/
+    String getDefaultPrefix() {
+        return defaultPrefix;
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2002-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.qaware.xff.filter;
+
+import de.qaware.xff.util.ForwardedHeader;
+
+import javax.servlet.http.HttpServletRequest;
+import java.util.Enumeration;
+
+/**
+ * Size limits for forwarded headers, checked before any of them is parsed, see
+ * {@link ForwardedHeaderFilter#MAX_HEADER_LENGTH}, {@link ForwardedHeaderFilter#MAX_HEADER_ELEMENTS} and
+ * {@link ForwardedHeaderFilter#MAX_PREFIX_LENGTH}. A limit of 0 or less disables it.
+ * <p>Multiple header lines of the same name count as one comma separated header. Length checks don't look at the
+ * characters at all; counting elements stops as soon as the limit is exceeded.
+ */
+final class ForwardedHeaderLimits {
+
+    private final int maxHeaderLength;
+
+    private final int maxElements;
+
+    private final int maxPrefixLength;
+
+    private final HeaderLimitPolicy policy;
+
+    /**
+     * @param maxHeaderLength maximum length of each forwarded header
+     * @param maxElements     maximum number of comma separated elements of each forwarded header
+     * @param maxPrefixLength maximum length of "X-Forwarded-Prefix"
+     * @param policy          what to do if a limit is exceeded
+     */
+    ForwardedHeaderLimits(int maxHeaderLength, int maxElements, int maxPrefixLength, HeaderLimitPolicy policy) {
+        this.maxHeaderLength = maxHeaderLength;
+        this.maxElements = maxElements;
+        this.maxPrefixLength = maxPrefixLength;
+        this.policy = policy;
+    }
+
+    /**
+     * @return true if at least one limit is set
+     */
+    boolean isEnabled() {
+        return maxHeaderLength > 0 || maxElements > 0 || maxPrefixLength > 0;
+    }
+
+    HeaderLimitPolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * @param request        the request
+     * @param presentHeaders {@link ForwardedHeader#mask() mask} of the forwarded headers present in the request
+     * @return the first forwarded header exceeding a limit, {@code null} if all are within the limits
+     */
+    /*@Nullable*/
+    ForwardedHeader findExceeded(HttpServletRequest request, int presentHeaders) {
+        for (ForwardedHeader header : ForwardedHeader.values()) {
+            if (header.isIn(presentHeaders) && isExceeded(request, header)) {
+                return header;
+            }
+        }
+        return null;
+    }
+
+    private boolean isExceeded(HttpServletRequest request, ForwardedHeader header) {
+        Enumeration<String> values = request.getHeaders(header.headerName());
+        if (values == null) {
+            return false;
+        }
+        int maxLength = header == ForwardedHeader.X_FORWARDED_PREFIX && maxPrefixLength > 0 ? maxPrefixLength : maxHeaderLength;
+        boolean quoted = header == ForwardedHeader.FORWARDED;
+        long length = -1;
+        int elements = 0;
+        while (values.hasMoreElements()) {
+            String value = values.nextElement();
+            // joined by ','
+            length += value.length() + 1;
+            if (maxLength > 0 && length > maxLength) {
+                return true;
+            }
+            if (maxElements > 0) {
+                elements = countElements(value, quoted, elements);
+                if (elements > maxElements) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param value  a header value
+     * @param quoted true if ',' inside quoted-strings do not separate elements ("Forwarded")
+     * @param count  number of elements counted so far
+     * @return number of elements including those of the given value, stops counting once {@link #maxElements} is exceeded
+     */
+    private int countElements(String value, boolean quoted, int count) {
+        int elements = count + 1;
+        boolean inQuotes = false;
+        for (int i = 0; i < value.length() && elements <= maxElements; i++) {
+            char ch = value.charAt(i);
+            if (ch == ',' && !inQuotes) {
+                elements++;
+            } else if (quoted && ch == '"') {
+                inQuotes = !inQuotes;
+            } else if (inQuotes && ch == '\\') {
+                // skip the escaped character
+                i++;
+            }
+        }
+        return elements;
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2002-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.qaware.xff.filter;
+
+import de.qaware.xff.util.ForwardedHeader;
+
+/**
+ * Listener for what the {@link ForwardedHeaderFilter} does, e.g. to bridge it to a metrics system.
+ * <p>All methods have empty default implementations, so implementations only override what they need.
+ * Methods are invoked on the request thread and must be thread safe and cheap.
+ * Timing callbacks are only invoked if {@link #isTimingEnabled()} returns true, otherwise
+ * {@link System#nanoTime()} is not even called.
+ *
+ * @see LongAdderForwardedHeaderMetrics
+ * @see ForwardedHeaderFilter#setMetrics(ForwardedHeaderMetrics)
+ * @see ForwardedHeaderFilter#METRICS_CLASS
+ */
+public interface ForwardedHeaderMetrics {
+
+    /**
+     * Does nothing at all, the default.
+     */
+    ForwardedHeaderMetrics NOOP = new ForwardedHeaderMetrics() {
+    };
+
+    /**
+     * The request carried no forwarded headers (and no defaults are configured) and was not filtered.
+     */
+    default void requestSkipped() {
+    }
+
+    /**
+     * The request was sent by a peer which is not a trusted proxy, its forwarded headers were ignored.
+     *
+     * @see ForwardedHeaderFilter#TRUSTED_PROXIES
+     */
+    default void untrustedProxy() {
+    }
+
+    /**
+     * A forwarded header exceeded one of the configured size limits, the {@link HeaderLimitPolicy} is applied
+     * after this call.
+     *
+     * @param header the first header exceeding a limit
+     * @see ForwardedHeaderFilter#HEADER_LIMIT_POLICY
+     */
+    @SuppressWarnings("squid:S1172")//Unused parameters - default implementation for implementations
+    default void headerLimitExceeded(ForwardedHeader header) {
+    }
+
+    /**
+     * The origin was resolved using at least one default from {@link ForwardedHeaderInitialHeaders}.
+     */
+    default void defaultsUsed() {
+    }
+
+    /**
+     * The origin was resolved from the "Forwarded" header.
+     */
+    default void forwardedHeaderUsed() {
+    }
+
+    /**
+     * The origin was resolved from "X-Forwarded-*" headers.
+     */
+    default void xForwardedHeadersUsed() {
+    }
+
+    /**
+     * A forwarded header contained a malformed value, the {@link MalformedHeaderPolicy} is applied after this call.
+     * Not called for {@link MalformedHeaderPolicy#STRICT}, see {@link #parseFailed(RuntimeException)}.
+     *
+     * @see ForwardedHeaderFilter#MALFORMED_HEADER_POLICY
+     */
+    default void malformedHeader() {
+    }
+
+    /**
+     * The forwarded headers could not be parsed, the exception is rethrown after this call.
+     *
+     * @param ex the exception
+     */
+    @SuppressWarnings("squid:S1172")//Unused parameters - default implementation for implementations
+    default void parseFailed(RuntimeException ex) {
+    }
+
+    /**
+     * @return true to receive {@link #headersParsed(long)} and {@link #redirectRewritten(long)}
+     */
+    default boolean isTimingEnabled() {
+        return false;
+    }
+
+    /**
+     * Time it took to resolve scheme, host and port from the forwarded headers.
+     *
+     * @param nanos duration in nanoseconds
+     */
+    @SuppressWarnings("squid:S1172")//Unused parameters - default implementation for implementations
+    default void headersParsed(long nanos) {
+    }
+
+    /**
+     * Time it took to rewrite a redirect location.
+     *
+     * @param nanos duration in nanoseconds
+     */
+    @SuppressWarnings("squid:S1172")//Unused parameters - default implementation for implementations
+    default void redirectRewritten(long nanos) {
+    }
+}
@@ -16,38 +16,32 @@
 package de.qaware.xff.filter;
 
 import de.qaware.xff.util.ForwardedHeader;
-import org.apache.commons.collections4.CollectionUtils;
-import org.apache.commons.collections4.map.CaseInsensitiveMap;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletRequestWrapper;
 import java.util.Collections;
 import java.util.Enumeration;
-import java.util.List;
-import java.util.Map;
+import java.util.NoSuchElementException;
 
 /**
  * Hide "Forwarded" or "X-Forwarded-*" headers.
+ * <p>This is a view on the wrapped request: header lookups are delegated unless the name is a forwarded header,
+ * no headers are copied.
  */
 class ForwardedHeaderRemovingRequest extends HttpServletRequestWrapper {
 
-    private final Map<String, List<String>> headers;
+    /**
+     * {@link ForwardedHeader#mask() Mask} of the forwarded headers to hide.
+     */
+    private final int hiddenHeaders;
 
-    public ForwardedHeaderRemovingRequest(HttpServletRequest request) {
+    /**
+     * @param request       the request to wrap
+     * @param hiddenHeaders {@link ForwardedHeader#mask() mask} of the forwarded headers to hide
+     */
+    public ForwardedHeaderRemovingRequest(HttpServletRequest request, int hiddenHeaders) {
         super(request);
-        this.headers = initHeaders(request);
-    }
-
-    private static Map<String, List<String>> initHeaders(HttpServletRequest request) {
-        Map<String, List<String>> headers = new CaseInsensitiveMap<>();
-        Enumeration<String> names = request.getHeaderNames();
-        while (names.hasMoreElements()) {
-            String name = names.nextElement();
-            if (!ForwardedHeader.isForwardedHeader(name)) {
-                headers.put(name, Collections.list(request.getHeaders(name)));
-            }
-        }
-        return headers;
+        this.hiddenHeaders = hiddenHeaders;
     }
 
     // Override header accessors to not expose forwarded headers
@@ -55,18 +49,78 @@ class ForwardedHeaderRemovingRequest extends HttpServletRequestWrapper {
     @Override
     /*@Nullable*/
     public String getHeader(String name) {
-        List<String> value = this.headers.get(name);
-        return (CollectionUtils.isEmpty(value) ? null : value.get(0));
+        return isHidden(name) ? null : super.getHeader(name);
     }
 
     @Override
     public Enumeration<String> getHeaders(String name) {
-        List<String> value = this.headers.get(name);
-        return (Collections.enumeration(value != null ? value : Collections.emptySet()));
+        if (isHidden(name)) {
+            return Collections.emptyEnumeration();
+        }
+        Enumeration<String> values = super.getHeaders(name);
+        return values != null ? values : Collections.emptyEnumeration();
+    }
+
+    @Override
+    public long getDateHeader(String name) {
+        return isHidden(name) ? -1 : super.getDateHeader(name);
+    }
+
+    @Override
+    public int getIntHeader(String name) {
+        return isHidden(name) ? -1 : super.getIntHeader(name);
     }
 
     @Override
     public Enumeration<String> getHeaderNames() {
-        return Collections.enumeration(this.headers.keySet());
+        Enumeration<String> names = super.getHeaderNames();
+        return names != null ? new NonForwardedHeaderNames(names) : Collections.emptyEnumeration();
+    }
+
+    private boolean isHidden(String name) {
+        ForwardedHeader header = ForwardedHeader.forName(name);
+        return header != null && header.isIn(this.hiddenHeaders);
+    }
+
+    /**
+     * Skips forwarded header names while iterating the underlying enumeration.
+     */
+    private final class NonForwardedHeaderNames implements Enumeration<String> {
+
+        private final Enumeration<String> names;
+
+        /*@Nullable*/
+        private String next;
+
+        NonForwardedHeaderNames(Enumeration<String> names) {
+            this.names = names;
+            advance();
+        }
+
+        private void advance() {
+            next = null;
+            while (names.hasMoreElements()) {
+                String name = names.nextElement();
+                if (!isHidden(name)) {
+                    next = name;
+                    return;
+                }
+            }
+        }
+
+        @Override
+        public boolean hasMoreElements() {
+            return next != null;
+        }
+
+        @Override
+        public String nextElement() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            String current = next;
+            advance();
+            return current;
+        }
     }
 }
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2002-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.qaware.xff.filter;
+
+import de.qaware.xff.util.uri.UriComponents;
+
+import java.util.Objects;
+
+/**
+ * Immutable scheme, host and port of the client-originated request, as resolved
+ * from the "Forwarded" or "X-Forwarded-*" headers.
+ */
+final class ForwardedOrigin {
+
+    private static final int HTTPS_PORT = 443;
+    private static final int HTTP_PORT = 80;
+
+    /**
+     * Marks an origin which could not be resolved because of a malformed forwarded header, compared by identity.
+     *
+     * @see MalformedHeaderPolicy#REJECT
+     */
+    static final ForwardedOrigin MALFORMED = new ForwardedOrigin(null, null, -1);
+
+    /*@Nullable*/
+    private final String scheme;
+
+    /*@Nullable*/
+    private final String host;
+
+    private final int port;
+
+    private final int uriPort;
+
+    private final boolean secure;
+
+    /**
+     * @param scheme  the scheme
+     * @param host    the host
+     * @param uriPort the port as contained in the URI, {@code -1} if it is the default port of the scheme
+     */
+    @SuppressWarnings("squid:S3358")//nested ternary op is more readable in this case
+    ForwardedOrigin(/*@Nullable*/ String scheme, /*@Nullable*/ String host, int uriPort) {
+        this.scheme = scheme;
+        this.host = host;
+        this.uriPort = uriPort;
+        this.secure = "https".equals(scheme);
+        this.port = (uriPort == -1 ? (this.secure ? HTTPS_PORT : HTTP_PORT) : uriPort);
+    }
+
+    /**
+     * Take scheme, host and port from the given (already adapted) uriComponents.
+     *
+     * @param uriComponents the source
+     * @return the origin
+     */
+    static ForwardedOrigin of(UriComponents uriComponents) {
+        return new ForwardedOrigin(uriComponents.getScheme(), uriComponents.getHost(), uriComponents.getPort());
+    }
+
+    /*@Nullable*/
+    String getScheme() {
+        return this.scheme;
+    }
+
+    /*@Nullable*/
+    String getHost() {
+        return this.host;
+    }
+
+    /**
+     * @return the port, falls back to the default port of the scheme
+     */
+    int getPort() {
+        return this.port;
+    }
+
+    /**
+     * @return the port as contained in the URI, {@code -1} if it is the default port of the scheme
+     */
+    int getUriPort() {
+        return this.uriPort;
+    }
+
+    boolean isSecure() {
+        return this.secure;
+    }
+
+    /**
+     * Append "scheme://host[:port]" to the given builder.
+     *
+     * @param builder the target
+     * @return the given builder
+     */
+    StringBuilder appendTo(StringBuilder builder) {
+        builder.append(this.scheme).append("://").append(this.host);
+        if (this.uriPort != -1) {
+            builder.append(':').append(this.uriPort);
+        }
+        return builder;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof ForwardedOrigin)) {
+            return false;
+        }
+        ForwardedOrigin other = (ForwardedOrigin) obj;
+        return this.uriPort == other.uriPort &&
+                Objects.equals(this.scheme, other.scheme) &&
+                Objects.equals(this.host, other.host);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = Objects.hashCode(this.scheme);
+        result = 31 * result + Objects.hashCode(this.host);
+        result = 31 * result + this.uriPort;
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return appendTo(new StringBuilder()).toString();
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2002-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.qaware.xff.filter;
+
+import de.qaware.xff.util.ForwardedHeader;
+
+import javax.servlet.http.HttpServletRequest;
+import java.util.Objects;
+
+import static de.qaware.xff.util.ForwardedHeader.*;
+
+/**
+ * Cache key for a {@link ForwardedOrigin}: the raw values of all inputs the origin is derived from,
+ * i.e. scheme, host and port of the request as seen by the server and the raw forwarded headers.
+ */
+final class ForwardedOriginKey {
+
+    /*@Nullable*/
+    private final String scheme;
+
+    /*@Nullable*/
+    private final String serverName;
+
+    private final int serverPort;
+
+    /*@Nullable*/
+    private final String forwarded;
+
+    /*@Nullable*/
+    private final String forwardedProto;
+
+    /*@Nullable*/
+    private final String forwardedHost;
+
+    /*@Nullable*/
+    private final String forwardedPort;
+
+    private final int hash;
+
+    ForwardedOriginKey(HttpServletRequest request) {
+        this(request, ALL_HEADERS_MASK);
+    }
+
+    /**
+     * @param request        the request
+     * @param presentHeaders {@link de.qaware.xff.util.ForwardedHeader#mask() mask} of the forwarded headers present
+     *                       in the request, others are not looked up
+     */
+    ForwardedOriginKey(HttpServletRequest request, int presentHeaders) {
+        this.scheme = request.getScheme();
+        this.serverName = request.getServerName();
+        this.serverPort = request.getServerPort();
+        this.forwarded = getHeader(request, FORWARDED, presentHeaders);
+        this.forwardedProto = getHeader(request, X_FORWARDED_PROTO, presentHeaders);
+        this.forwardedHost = getHeader(request, X_FORWARDED_HOST, presentHeaders);
+        this.forwardedPort = getHeader(request, X_FORWARDED_PORT, presentHeaders);
+
+        int result = Objects.hashCode(this.scheme);
+        result = 31 * result + Objects.hashCode(this.serverName);
+        result = 31 * result + this.serverPort;
+        result = 31 * result + Objects.hashCode(this.forwarded);
+        result = 31 * result + Objects.hashCode(this.forwardedProto);
+        result = 31 * result + Objects.hashCode(this.forwardedHost);
+        result = 31 * result + Objects.hashCode(this.forwardedPort);
+        this.hash = result;
+    }
+
+    /*@Nullable*/
+    private static String getHeader(HttpServletRequest request, ForwardedHeader header, int presentHeaders) {
+        return header.isIn(presentHeaders) ? request.getHeader(header.headerName()) : null;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof ForwardedOriginKey)) {
+            return false;
+        }
+        ForwardedOriginKey other = (ForwardedOriginKey) obj;
+        return this.hash == other.hash &&
+                this.serverPort == other.serverPort &&
+                Objects.equals(this.scheme, other.scheme) &&
+                Objects.equals(this.serverName, other.serverName) &&
+                Objects.equals(this.forwarded, other.forwarded) &&
+                Objects.equals(this.forwardedProto, other.forwardedProto) &&
+                Objects.equals(this.forwardedHost, other.forwardedHost) &&
+                Objects.equals(this.forwardedPort, other.forwardedPort);
+    }
+
+    @Override
+    public int hashCode() {
+        return this.hash;
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2002-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.qaware.xff.filter;
+
+import de.qaware.xff.util.BoundedConcurrentCache;
+
+import java.util.function.Function;
+
+/**
+ * Size-bounded cache of rewritten redirect locations, see {@link ForwardedHeaderFilter#REDIRECT_CACHE_SIZE}.
+ */
+final class ForwardedRedirectCache {
+
+    private final BoundedConcurrentCache<ForwardedRedirectKey, String> cache;
+
+    private final boolean includeQueryAndFragment;
+
+    /**
+     * @param maxSize                 maximum number of locations, rounded up to the next power of two
+     * @param includeQueryAndFragment true to also cache locations with a query string or fragment
+     */
+    ForwardedRedirectCache(int maxSize, boolean includeQueryAndFragment) {
+        this.cache = new BoundedConcurrentCache<>(maxSize);
+        this.includeQueryAndFragment = includeQueryAndFragment;
+    }
+
+    /**
+     * @param location relative location
+     * @return true if the rewritten location may be cached
+     */
+    boolean isCacheable(String location) {
+        return includeQueryAndFragment || (location.indexOf('?') == -1 && location.indexOf('#') == -1);
+    }
+
+    String computeIfAbsent(ForwardedRedirectKey key, Function<ForwardedRedirectKey, String> rewrite) {
+        return cache.computeIfAbsent(key, rewrite);
+    }
+
+    long getHitCount() {
+        return cache.getHitCount();
+    }
+
+    long getMissCount() {
+        return cache.getMissCount();
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2002-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.qaware.xff.filter;
+
+import java.util.Objects;
+
+/**
+ * Cache key for a rewritten redirect location: the resolved origin, the directory of the current request
+ * (only for locations relative to it) and the location as passed to {@code sendRedirect}.
+ * <p>The directory is kept as a region of the request URI, so creating a key does not copy any string.
+ */
+final class ForwardedRedirectKey {
+
+    private final ForwardedOrigin origin;
+
+    private final String requestUri;
+
+    /**
+     * Length of the directory prefix of {@link #requestUri} the location is relative to, 0 if irrelevant
+     */
+    private final int directoryLength;
+
+    private final String location;
+
+    private final int hash;
+
+    /**
+     * @param origin     the resolved origin of the request
+     * @param requestUri the (forwarded) request URI
+     * @param location   the location as passed to {@code sendRedirect}
+     */
+    ForwardedRedirectKey(ForwardedOrigin origin, String requestUri, String location) {
+        this.origin = origin;
+        this.requestUri = requestUri;
+        this.directoryLength = location.startsWith("/") ? 0 : Math.max(requestUri.lastIndexOf('/'), 0);
+        this.location = location;
+
+        int result = origin.hashCode();
+        for (int i = 0; i < this.directoryLength; i++) {
+            result = 31 * result + requestUri.charAt(i);
+        }
+        result = 31 * result + location.hashCode();
+        this.hash = result;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof ForwardedRedirectKey)) {
+            return false;
+        }
+        ForwardedRedirectKey other = (ForwardedRedirectKey) obj;
+        return this.hash == other.hash &&
+                this.directoryLength == other.directoryLength &&
+                this.location.equals(other.location) &&
+                this.requestUri.regionMatches(0, other.requestUri, 0, this.directoryLength) &&
+                Objects.equals(this.origin, other.origin);
+    }
+
+    @Override
+    public int hashCode() {
+        return this.hash;
+    }
+}
@@ -0,0 +1,32 @@
+/*
+ * Copyright 2002-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.qaware.xff.filter;
+
+/**
+ * What to do with a request whose forwarded headers exceed one of the configured limits, see
+ * {@link ForwardedHeaderFilter#HEADER_LIMIT_POLICY}.
+ */
+public enum HeaderLimitPolicy {
+
+    //Forwarded headers are not evaluated, as if sent by an untrusted proxy. They are removed if the HeaderProcessingStrategy removes headers.
+    IGNORE,
+
+    //Forwarded headers are removed and not evaluated, the request is processed as if they had not been sent (defaults still apply).
+    STRIP,
+
+    //The request is answered with "400 Bad Request" and not passed on to the filter chain.
+    REJECT
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright 2002-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.qaware.xff.filter;
+
+import de.qaware.xff.util.ForwardedHeader;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * {@link ForwardedHeaderMetrics} counting into {@link LongAdder}s, which are contention free on the
+ * request path. The counters can be read at any time, e.g. to export them to a metrics system.
+ * <p>Can be configured via {@link ForwardedHeaderFilter#METRICS_CLASS} (timing disabled) or
+ * {@link ForwardedHeaderFilter#setMetrics(ForwardedHeaderMetrics)}.
+ */
+public class LongAdderForwardedHeaderMetrics implements ForwardedHeaderMetrics {
+
+    private final boolean timingEnabled;
+
+    private final LongAdder skipped = new LongAdder();
+    private final LongAdder untrusted = new LongAdder();
+    private final LongAdder limitExceeded = new LongAdder();
+    private final LongAdder defaults = new LongAdder();
+    private final LongAdder forwarded = new LongAdder();
+    private final LongAdder xForwarded = new LongAdder();
+    private final LongAdder parseFailures = new LongAdder();
+    private final LongAdder malformed = new LongAdder();
+    private final LongAdder parseCount = new LongAdder();
+    private final LongAdder parseNanos = new LongAdder();
+    private final LongAdder redirectCount = new LongAdder();
+    private final LongAdder redirectNanos = new LongAdder();
+
+    /**
+     * Counters only, without timing.
+     */
+    public LongAdderForwardedHeaderMetrics() {
+        this(false);
+    }
+
+    /**
+     * @param timingEnabled true to also measure header parsing and redirect rewriting
+     */
+    public LongAdderForwardedHeaderMetrics(boolean timingEnabled) {
+        this.timingEnabled = timingEnabled;
+    }
+
+    @Override
+    public void requestSkipped() {
+        skipped.increment();
+    }
+
+    @Override
+    public void untrustedProxy() {
+        untrusted.increment();
+    }
+
+    @Override
+    public void headerLimitExceeded(ForwardedHeader header) {
+        limitExceeded.increment();
+    }
+
+    @Override
+    public void defaultsUsed() {
+        defaults.increment();
+    }
+
+    @Override
+    public void forwardedHeaderUsed() {
+        forwarded.increment();
+    }
+
+    @Override
+    public void xForwardedHeadersUsed() {
+        xForwarded.increment();
+    }
+
+    @Override
+    public void malformedHeader() {
+        malformed.increment();
+    }
+
+    @Override
+    public void parseFailed(RuntimeException ex) {
+        parseFailures.increment();
+    }
+
+    @Override
+    public boolean isTimingEnabled() {
+        return timingEnabled;
+    }
+
+    @Override
+    public void headersParsed(long nanos) {
+        parseCount.increment();
+        parseNanos.add(nanos);
+    }
+
+    @Override
+    public void redirectRewritten(long nanos) {
+        redirectCount.increment();
+        redirectNanos.add(nanos);
+    }
+
+    public long getSkippedCount() {
+        return skipped.sum();
+    }
+
+    public long getUntrustedProxyCount() {
+        return untrusted.sum();
+    }
+
+    public long getHeaderLimitExceededCount() {
+        return limitExceeded.sum();
+    }
+
+    public long getDefaultsUsedCount() {
+        return defaults.sum();
+    }
+
+    public long getForwardedHeaderCount() {
+        return forwarded.sum();
+    }
+
+    public long getXForwardedHeadersCount() {
+        return xForwarded.sum();
+    }
+
+    public long getParseFailureCount() {
+        return parseFailures.sum();
+    }
+
+    public long getMalformedHeaderCount() {
+        return malformed.sum();
+    }
+
+    /**
+     * @return number of timed header parsings, 0 if timing is disabled
+     */
+    public long getParseTimedCount() {
+        return parseCount.sum();
+    }
+
+    /**
+     * @return total nanoseconds spent parsing headers, 0 if timing is disabled
+     */
+    public long getParseTotalNanos() {
+        return parseNanos.sum();
+    }
+
+    /**
+     * @return number of timed redirect rewrites, 0 if timing is disabled
+     */
+    public long getRedirectTimedCount() {
+        return redirectCount.sum();
+    }
+
+    /**
+     * @return total nanoseconds spent rewriting redirects, 0 if timing is disabled
+     */
+    public long getRedirectTotalNanos() {
+        return redirectNanos.sum();
+    }
+}
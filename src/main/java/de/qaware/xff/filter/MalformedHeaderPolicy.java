@@ -0,0 +1,36 @@
+/*
+ * Copyright 2002-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.qaware.xff.filter;
+
+/**
+ * What to do with a request whose forwarded headers contain a malformed value, e.g. a non numeric port in
+ * "X-Forwarded-Port" or "Forwarded: host=", see {@link ForwardedHeaderFilter#MALFORMED_HEADER_POLICY}.
+ * <p>All policies except {@link #STRICT} parse without throwing exceptions, so malformed input costs no more than valid input.
+ */
+public enum MalformedHeaderPolicy {
+
+    //A NumberFormatException is thrown when the application first accesses scheme, host, port or URL of the request.
+    STRICT,
+
+    //The malformed value is skipped, all other forwarded headers are evaluated.
+    IGNORE,
+
+    //All forwarded origin headers are skipped: scheme, host and port are taken from the request and the configured defaults.
+    DEFAULTS,
+
+    //The request is answered with "400 Bad Request" and not passed on to the filter chain.
+    REJECT
+}
@@ -47,6 +47,11 @@ import java.util.Optional;
  * {@link #shouldNotFilterErrorDispatch()} if they wish to declare statically
  * if they should be invoked <em>once</em> during error dispatches.
  * <p>
+ * <p>Subclasses that need to inspect the request both for the skip decision and for the
+ * actual filtering can do so once in {@link #scanRequest}: its result is handed to
+ * {@link #shouldNotFilter(HttpServletRequest, int)} and
+ * {@link #doFilterInternal(HttpServletRequest, HttpServletResponse, FilterChain, int)}.
+ * <p>
  * <p>The {@link #getAlreadyFilteredAttributeName} method determines how to
  * identify that a request is already filtered. The default implementation is
  * based on the configured name of the concrete filter instance.
@@ -95,7 +100,14 @@ public abstract class OncePerRequestFilter implements Filter {
         String alreadyFilteredAttribute = getAlreadyFilteredAttributeName();
         boolean hasAlreadyFilteredAttribute = request.getAttribute(alreadyFilteredAttribute) != null;
 
-        if (hasAlreadyFilteredAttribute || skipDispatch(httpRequest) || shouldNotFilter(httpRequest)) {
+        if (hasAlreadyFilteredAttribute || skipDispatch(httpRequest)) {
+            // Proceed without invoking this filter...
+            filterChain.doFilter(request, response);
+            return;
+        }
+
+        int scanResult = scanRequest(httpRequest);
+        if (shouldNotFilter(httpRequest, scanResult)) {
 
             // Proceed without invoking this filter...
             filterChain.doFilter(request, response);
@@ -103,7 +115,7 @@ public abstract class OncePerRequestFilter implements Filter {
             // Do invoke this filter...
             request.setAttribute(alreadyFilteredAttribute, Boolean.TRUE);
             try {
-                doFilterInternal(httpRequest, httpResponse, filterChain);
+                doFilterInternal(httpRequest, httpResponse, filterChain, scanResult);
             } finally {
                 // Remove the "already filtered" request attribute for this request.
                 request.removeAttribute(alreadyFilteredAttribute);
@@ -145,6 +157,36 @@ public abstract class OncePerRequestFilter implements Filter {
         return false;
     }
 
+    /**
+     * Can be overridden in subclasses to inspect the request once per dispatch, e.g. to collect
+     * flags about the headers present. The result is passed to
+     * {@link #shouldNotFilter(HttpServletRequest, int)} and
+     * {@link #doFilterInternal(HttpServletRequest, HttpServletResponse, FilterChain, int)}.
+     * <p>The default implementation returns 0.
+     *
+     * @param request current HTTP request
+     * @return subclass specific scan result
+     * @throws ServletException in case of errors
+     */
+    @SuppressWarnings("squid:S1172")//Unused parameters - default implementation for subclasses
+    protected int scanRequest(HttpServletRequest request) throws ServletException {
+        return 0;
+    }
+
+    /**
+     * Same as {@link #shouldNotFilter(HttpServletRequest)}, with the result of {@link #scanRequest}.
+     * <p>The default implementation delegates to {@link #shouldNotFilter(HttpServletRequest)}.
+     *
+     * @param request    current HTTP request
+     * @param scanResult result of {@link #scanRequest} for this request
+     * @return whether the given request should <i>not</i> be filtered
+     * @throws ServletException in case of errors
+     */
+    @SuppressWarnings("squid:S1172")//Unused parameters - default implementation for subclasses
+    protected boolean shouldNotFilter(HttpServletRequest request, int scanResult) throws ServletException {
+        return shouldNotFilter(request);
+    }
+
     /**
      * Whether to filter error dispatches such as when the servlet container
      * processes and error mapped in {@code web.xml}. The default return value
@@ -169,6 +211,18 @@ public abstract class OncePerRequestFilter implements Filter {
             HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
             throws ServletException, IOException;
 
+    /**
+     * Same as {@link #doFilterInternal(HttpServletRequest, HttpServletResponse, FilterChain)},
+     * with the result of {@link #scanRequest}.
+     * <p>The default implementation delegates to {@link #doFilterInternal(HttpServletRequest, HttpServletResponse, FilterChain)}.
+     */
+    @SuppressWarnings("squid:S1172")//Unused parameters - default implementation for subclasses
+    protected void doFilterInternal(
+            HttpServletRequest request, HttpServletResponse response, FilterChain filterChain, int scanResult)
+            throws ServletException, IOException {
+        doFilterInternal(request, response, filterChain);
+    }
+
     /**
      * Subclasses may override this to perform custom filter shutdown.
      * <p>Note: This method will be called from standard filter destruction
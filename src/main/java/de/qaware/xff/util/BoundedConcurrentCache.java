@@ -0,0 +1,141 @@
+/*
+ * Copyright 2002-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.qaware.xff.util;
+
+import org.apache.commons.lang3.Validate;
+
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Lock-free, size-bounded cache.
+ * <p>The cache is direct-mapped: every key has exactly one slot (determined by its hash) and a new entry simply
+ * replaces whatever was stored in that slot before. Thus memory is bounded by the capacity regardless of how many
+ * distinct keys are offered, which makes it safe to cache values derived from client controlled input.
+ * Lookups and inserts are a single volatile read/write, no locks are taken.
+ * <p>Keys must be immutable and implement {@link Object#equals(Object)} and {@link Object#hashCode()},
+ * values must be immutable (or at least safely shareable between threads).
+ *
+ * @param <K> key type
+ * @param <V> value type
+ */
+public final class BoundedConcurrentCache<K, V> {
+
+	private static final int MAXIMUM_CAPACITY = 1 << 30;
+
+	private final AtomicReferenceArray<Entry<K, V>> table;
+
+	private final int mask;
+
+	private final LongAdder hits = new LongAdder();
+
+	private final LongAdder misses = new LongAdder();
+
+	/**
+	 * @param maxSize maximum number of entries, rounded up to the next power of two
+	 */
+	public BoundedConcurrentCache(int maxSize) {
+		Validate.isTrue(maxSize > 0 && maxSize <= MAXIMUM_CAPACITY, "maxSize must be between 1 and %d: %d", MAXIMUM_CAPACITY, maxSize);
+		int capacity = maxSize == 1 ? 1 : Integer.highestOneBit(maxSize - 1) << 1;
+		this.table = new AtomicReferenceArray<>(capacity);
+		this.mask = capacity - 1;
+	}
+
+	/**
+	 * Lookup the value cached for the given key.
+	 *
+	 * @param key the key
+	 * @return the cached value or {@code null} if not (or no longer) cached
+	 */
+	/*@Nullable*/
+	public V get(K key) {
+		Entry<K, V> entry = this.table.get(indexOf(key));
+		if (entry != null && entry.key.equals(key)) {
+			this.hits.increment();
+			return entry.value;
+		}
+		this.misses.increment();
+		return null;
+	}
+
+	/**
+	 * Cache the given value, possibly evicting the entry of another key.
+	 *
+	 * @param key   the key
+	 * @param value the value
+	 */
+	public void put(K key, V value) {
+		Objects.requireNonNull(key, "key");
+		Objects.requireNonNull(value, "value");
+		this.table.set(indexOf(key), new Entry<>(key, value));
+	}
+
+	/**
+	 * Return the cached value for the given key or compute and cache it.
+	 * <p>The mapping function may be invoked concurrently for the same key, the last result wins.
+	 * Exceptions thrown by the mapping function are propagated and nothing is cached.
+	 *
+	 * @param key             the key
+	 * @param mappingFunction computes the value if not cached
+	 * @return the cached or computed value
+	 */
+	public V computeIfAbsent(K key, Function<? super K, ? extends V> mappingFunction) {
+		V value = get(key);
+		if (value == null) {
+			value = mappingFunction.apply(key);
+			put(key, value);
+		}
+		return value;
+	}
+
+	/**
+	 * @return maximum number of entries
+	 */
+	public int capacity() {
+		return this.table.length();
+	}
+
+	/**
+	 * @return number of lookups which found a value
+	 */
+	public long getHitCount() {
+		return this.hits.sum();
+	}
+
+	/**
+	 * @return number of lookups which did not find a value
+	 */
+	public long getMissCount() {
+		return this.misses.sum();
+	}
+
+	private int indexOf(Object key) {
+		int hash = key.hashCode();
+		return (hash ^ (hash >>> 16)) & this.mask;
+	}
+
+	private static final class Entry<K, V> {
+		private final K key;
+		private final V value;
+
+		private Entry(K key, V value) {
+			this.key = key;
+			this.value = value;
+		}
+	}
+}
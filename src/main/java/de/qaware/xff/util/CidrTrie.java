@@ -0,0 +1,398 @@
+/*
+ * Copyright 2002-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.qaware.xff.util;
+
+/**
+ * Set of IPv4 and IPv6 address ranges in CIDR notation (e.g. "10.0.0.0/8", "2001:db8::/32", "192.0.2.1").
+ * <p>All ranges are compiled into a path-compressed binary radix trie over 128 bit keys (two {@code long}s).
+ * IPv4 addresses are mapped into the IPv4-mapped IPv6 range {@code ::ffff:0:0/96}, so IPv4 and IPv6 share one trie.
+ * A lookup parses the address without allocating and walks at most one node per distinct prefix length
+ * on the path, each node being a few word comparisons, independent of the total number of ranges.
+ * <p>Instances are immutable after construction and thus thread safe.
+ */
+public final class CidrTrie {
+
+	private static final int IPV4_BITS = 32;
+	private static final int IPV6_BITS = 128;
+	private static final int IPV4_MAPPED_PREFIX_BITS = IPV6_BITS - IPV4_BITS;
+	private static final long IPV4_MAPPED_PREFIX = 0x0000_FFFF_0000_0000L;
+	private static final int IPV6_GROUPS = 8;
+	private static final int GROUP_BITS = 16;
+	private static final int MAX_GROUP_DIGITS = 4;
+	private static final int IPV4_OCTETS = 4;
+	private static final int MAX_OCTET = 255;
+
+	/*@Nullable*/
+	private Node root;
+
+	private int size;
+
+	private final AddressConsumer lookup = this::containsBits;
+
+	/**
+	 * @param cidrs ranges in CIDR notation or single addresses, surrounding whitespace is ignored
+	 * @throws IllegalArgumentException if a range is not a valid IPv4/IPv6 address or CIDR
+	 */
+	public CidrTrie(Iterable<String> cidrs) {
+		for (String cidr : cidrs) {
+			add(cidr.trim());
+		}
+	}
+
+	/**
+	 * Checks if the given address lies within any of the ranges.
+	 *
+	 * @param address IPv4 or IPv6 address literal, IPv6 may be enclosed in brackets and may contain a zone id
+	 * @return true if address is a valid address literal and within one of the ranges,
+	 * false otherwise (also for {@code null}, host names and malformed addresses)
+	 */
+	public boolean contains(/*@Nullable*/ String address) {
+		return address != null && contains(address, 0, address.length());
+	}
+
+	/**
+	 * Checks if the address contained in the given region of the string lies within any of the ranges.
+	 *
+	 * @param text  text containing an IPv4 or IPv6 address literal
+	 * @param start start index of the address (inclusive)
+	 * @param end   end index of the address (exclusive)
+	 * @return true if the region is a valid address literal and within one of the ranges
+	 * @see #contains(String)
+	 */
+	public boolean contains(String text, int start, int end) {
+		return this.root != null && start < end && parseAddress(text, start, end, this.lookup);
+	}
+
+	/**
+	 * Checks if the given region of the string is an IPv4 or IPv6 address literal.
+	 *
+	 * @param text  text containing the address
+	 * @param start start index of the address (inclusive)
+	 * @param end   end index of the address (exclusive)
+	 * @return true if the region is a valid address literal, false for host names and obfuscated identifiers
+	 */
+	public static boolean isAddress(String text, int start, int end) {
+		return start < end && parseAddress(text, start, end, (hi, lo) -> true);
+	}
+
+	/**
+	 * @return number of ranges this trie was built from
+	 */
+	public int size() {
+		return this.size;
+	}
+
+	/**
+	 * @return true if this trie contains no range at all
+	 */
+	public boolean isEmpty() {
+		return this.size == 0;
+	}
+
+	private void add(String cidr) {
+		int slash = cidr.indexOf('/');
+		int addressEnd = slash == -1 ? cidr.length() : slash;
+		boolean ipv6 = cidr.lastIndexOf(':', addressEnd) != -1;
+		int maxBits = ipv6 ? IPV6_BITS : IPV4_BITS;
+		int prefixLength = maxBits;
+		if (slash != -1) {
+			prefixLength = parsePrefixLength(cidr, slash + 1, maxBits);
+		}
+		int prefixBits = ipv6 ? prefixLength : IPV4_MAPPED_PREFIX_BITS + prefixLength;
+		if (!parseAddress(cidr, 0, addressEnd, (hi, lo) -> {
+			this.root = insert(this.root, maskHi(hi, prefixBits), maskLo(lo, prefixBits), prefixBits);
+			return true;
+		})) {
+			throw new IllegalArgumentException("Invalid IP address or CIDR: '" + cidr + "'");
+		}
+		this.size++;
+	}
+
+	private static int parsePrefixLength(String cidr, int start, int maxBits) {
+		int end = cidr.length();
+		if (start == end || end - start > 3) {
+			throw new IllegalArgumentException("Invalid CIDR prefix length: '" + cidr + "'");
+		}
+		int prefixLength = 0;
+		for (int i = start; i < end; i++) {
+			int digit = decimalDigit(cidr.charAt(i));
+			if (digit < 0) {
+				throw new IllegalArgumentException("Invalid CIDR prefix length: '" + cidr + "'");
+			}
+			prefixLength = prefixLength * 10 + digit;
+		}
+		if (prefixLength > maxBits) {
+			throw new IllegalArgumentException("CIDR prefix length exceeds " + maxBits + ": '" + cidr + "'");
+		}
+		return prefixLength;
+	}
+
+	private static Node insert(/*@Nullable*/ Node node, long hi, long lo, int length) {
+		if (node == null) {
+			return new Node(hi, lo, length);
+		}
+		int common = commonPrefixLength(node.hi, node.lo, hi, lo, Math.min(node.length, length));
+		if (common == node.length) {
+			if (length == node.length) {
+				node.terminal = true;
+			} else if (!node.terminal) {
+				// a terminal node already covers any longer prefix
+				if (bitAt(hi, lo, node.length) == 0) {
+					node.zero = insert(node.zero, hi, lo, length);
+				} else {
+					node.one = insert(node.one, hi, lo, length);
+				}
+			}
+			return node;
+		}
+		Node split = new Node(maskHi(hi, common), maskLo(lo, common), common);
+		split.terminal = false;
+		split.setChild(node);
+		if (length == common) {
+			split.terminal = true;
+		} else {
+			split.setChild(new Node(hi, lo, length));
+		}
+		return split;
+	}
+
+	private boolean containsBits(long hi, long lo) {
+		Node node = this.root;
+		while (node != null) {
+			if (!node.matches(hi, lo)) {
+				return false;
+			}
+			if (node.terminal) {
+				return true;
+			}
+			node = bitAt(hi, lo, node.length) == 0 ? node.zero : node.one;
+		}
+		return false;
+	}
+
+	private static int commonPrefixLength(long hi1, long lo1, long hi2, long lo2, int max) {
+		long diff = hi1 ^ hi2;
+		int common = diff != 0 ? Long.numberOfLeadingZeros(diff) : Long.SIZE + Long.numberOfLeadingZeros(lo1 ^ lo2);
+		return Math.min(common, max);
+	}
+
+	private static int bitAt(long hi, long lo, int index) {
+		return (int) (index < Long.SIZE ? (hi >>> (Long.SIZE - 1 - index)) & 1 : (lo >>> (IPV6_BITS - 1 - index)) & 1);
+	}
+
+	private static long mask(int bits) {
+		return bits <= 0 ? 0 : -1L << (Long.SIZE - Math.min(bits, Long.SIZE));
+	}
+
+	private static long maskHi(long hi, int prefixBits) {
+		return hi & mask(prefixBits);
+	}
+
+	private static long maskLo(long lo, int prefixBits) {
+		return lo & mask(prefixBits - Long.SIZE);
+	}
+
+	/**
+	 * Parse an IPv4 or IPv6 address literal and pass its 128 bit value to the consumer.
+	 *
+	 * @return false if the address is invalid, otherwise the result of the consumer
+	 */
+	@SuppressWarnings("squid:S3776")//a hand-written parser is inherently branchy, splitting it up would hurt readability
+	private static boolean parseAddress(String address, int from, int to, AddressConsumer consumer) {
+		int start = from;
+		int end = to;
+		if (end - start > 1 && address.charAt(start) == '[' && address.charAt(end - 1) == ']') {
+			start++;
+			end--;
+		}
+		boolean ipv6 = false;
+		for (int i = start; i < end; i++) {
+			char ch = address.charAt(i);
+			if (ch == ':') {
+				ipv6 = true;
+			} else if (ch == '%' && ipv6) {
+				// zone id, e.g. fe80::1%eth0
+				end = i;
+				break;
+			}
+		}
+		if (!ipv6) {
+			long ipv4 = parseIpv4(address, start, end);
+			return ipv4 >= 0 && consumer.accept(0, IPV4_MAPPED_PREFIX | ipv4);
+		}
+
+		// groups before "::" are accumulated in hi/lo, groups after "::" in tailHi/tailLo
+		long hi = 0;
+		long lo = 0;
+		long tailHi = 0;
+		long tailLo = 0;
+		int groups = 0;
+		int compressedAt = -1;
+		int pos = start;
+		if (end - pos >= 2 && address.charAt(pos) == ':' && address.charAt(pos + 1) == ':') {
+			compressedAt = 0;
+			pos += 2;
+		}
+		while (pos < end) {
+			int groupStart = pos;
+			int value = 0;
+			int digits = 0;
+			int digit;
+			while (pos < end && (digit = hexDigit(address.charAt(pos))) >= 0) {
+				value = (value << 4) | digit;
+				pos++;
+				if (++digits > MAX_GROUP_DIGITS) {
+					break;
+				}
+			}
+			int bits;
+			if (pos < end && address.charAt(pos) == '.') {
+				// embedded IPv4, must be last
+				long ipv4 = parseIpv4(address, groupStart, end);
+				if (ipv4 < 0) {
+					return false;
+				}
+				value = (int) ipv4;
+				bits = IPV4_BITS;
+				groups += 2;
+				pos = end;
+			} else if (digits == 0 || digits > MAX_GROUP_DIGITS) {
+				return false;
+			} else {
+				bits = GROUP_BITS;
+				groups++;
+			}
+			if (groups > IPV6_GROUPS) {
+				return false;
+			}
+			if (compressedAt < 0) {
+				hi = (hi << bits) | (lo >>> (Long.SIZE - bits));
+				lo = (lo << bits) | (value & 0xFFFF_FFFFL);
+			} else {
+				tailHi = (tailHi << bits) | (tailLo >>> (Long.SIZE - bits));
+				tailLo = (tailLo << bits) | (value & 0xFFFF_FFFFL);
+			}
+			if (pos == end) {
+				break;
+			}
+			if (address.charAt(pos) != ':' || ++pos == end) {
+				return false;
+			}
+			if (address.charAt(pos) == ':') {
+				if (compressedAt >= 0) {
+					return false;
+				}
+				compressedAt = groups;
+				pos++;
+			}
+		}
+		if (compressedAt < 0) {
+			return groups == IPV6_GROUPS && consumer.accept(hi, lo);
+		}
+		if (groups == IPV6_GROUPS) {
+			return false;
+		}
+		for (int i = compressedAt; i < IPV6_GROUPS; i++) {
+			hi = (hi << GROUP_BITS) | (lo >>> (Long.SIZE - GROUP_BITS));
+			lo <<= GROUP_BITS;
+		}
+		return consumer.accept(hi | tailHi, lo | tailLo);
+	}
+
+	/**
+	 * @return the unsigned 32 bit address or -1 if invalid
+	 */
+	private static long parseIpv4(String address, int start, int end) {
+		long result = 0;
+		int octets = 0;
+		int pos = start;
+		while (pos < end) {
+			int value = 0;
+			int digits = 0;
+			int digit;
+			while (pos < end && (digit = decimalDigit(address.charAt(pos))) >= 0) {
+				value = value * 10 + digit;
+				pos++;
+				if (++digits > 3 || value > MAX_OCTET) {
+					return -1;
+				}
+			}
+			if (digits == 0 || ++octets > IPV4_OCTETS) {
+				return -1;
+			}
+			result = (result << Byte.SIZE) | value;
+			if (pos < end && (address.charAt(pos) != '.' || ++pos == end)) {
+				return -1;
+			}
+		}
+		return octets == IPV4_OCTETS ? result : -1;
+	}
+
+	private static int decimalDigit(char ch) {
+		return ch >= '0' && ch <= '9' ? ch - '0' : -1;
+	}
+
+	private static int hexDigit(char ch) {
+		if (ch >= '0' && ch <= '9') {
+			return ch - '0';
+		}
+		if (ch >= 'a' && ch <= 'f') {
+			return ch - 'a' + 10;
+		}
+		if (ch >= 'A' && ch <= 'F') {
+			return ch - 'A' + 10;
+		}
+		return -1;
+	}
+
+	@FunctionalInterface
+	private interface AddressConsumer {
+		boolean accept(long hi, long lo);
+	}
+
+	private static final class Node {
+		private final long hi;
+		private final long lo;
+		private final int length;
+		private final long maskHi;
+		private final long maskLo;
+		private boolean terminal = true;
+		/*@Nullable*/
+		private Node zero;
+		/*@Nullable*/
+		private Node one;
+
+		private Node(long hi, long lo, int length) {
+			this.hi = hi;
+			this.lo = lo;
+			this.length = length;
+			this.maskHi = mask(length);
+			this.maskLo = mask(length - Long.SIZE);
+		}
+
+		private boolean matches(long otherHi, long otherLo) {
+			return ((otherHi ^ this.hi) & this.maskHi) == 0 && ((otherLo ^ this.lo) & this.maskLo) == 0;
+		}
+
+		private void setChild(Node child) {
+			if (bitAt(child.hi, child.lo, this.length) == 0) {
+				this.zero = child;
+			} else {
+				this.one = child;
+			}
+		}
+	}
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright 2002-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.qaware.xff.util;
+
+/**
+ * The first element of a "Forwarded" header (<a href="http://tools.ietf.org/html/rfc7239">RFC 7239</a>).
+ * <p>The header is parsed in a single pass without regular expressions:
+ * <pre>
+ * Forwarded   = 1#forwarded-element
+ * forwarded-element = [ forwarded-pair ] *( ";" [ forwarded-pair ] )
+ * forwarded-pair = token "=" value
+ * value          = token / quoted-string
+ * </pre>
+ * Only the first element is evaluated (the one added by the proxy closest to the client), a ',' inside a
+ * quoted-string does not terminate the element. Parameter names are matched case-insensitively, for each
+ * parameter the first occurrence wins. Parsing is lenient: whitespace around pairs and values is ignored, and
+ * only the last whitespace delimited word before '=' is taken as parameter name. Unknown parameters,
+ * pairs without '=' and empty values are skipped.
+ */
+public final class ForwardedElement {
+
+	private static final ForwardedElement EMPTY = new ForwardedElement(null, null, null, null);
+
+	private static final int KEY_UNKNOWN = -1;
+	private static final int KEY_PROTO = 0;
+	private static final int KEY_HOST = 1;
+	private static final int KEY_FOR = 2;
+	private static final int KEY_BY = 3;
+
+	/*@Nullable*/
+	private final String proto;
+
+	/*@Nullable*/
+	private final String host;
+
+	/*@Nullable*/
+	private final String forValue;
+
+	/*@Nullable*/
+	private final String by;
+
+	private ForwardedElement(/*@Nullable*/ String proto, /*@Nullable*/ String host, /*@Nullable*/ String forValue, /*@Nullable*/ String by) {
+		this.proto = proto;
+		this.host = host;
+		this.forValue = forValue;
+		this.by = by;
+	}
+
+	/**
+	 * Parse the first element of the given "Forwarded" header value.
+	 *
+	 * @param forwardedHeader the header value, may be {@code null}
+	 * @return the first element, never {@code null}. All parameters are {@code null} if not present
+	 */
+	public static ForwardedElement parseFirst(/*@Nullable*/ String forwardedHeader) {
+		if (forwardedHeader == null) {
+			return EMPTY;
+		}
+		return parse(forwardedHeader, 0, forwardedHeader.length());
+	}
+
+	/**
+	 * Parse the element starting at the given index of the given "Forwarded" header value.
+	 * Parsing stops at the first ',' outside of a quoted-string or at the given end index.
+	 *
+	 * @param forwardedHeader the header value
+	 * @param start           start index of the element (inclusive)
+	 * @param end             maximum end index of the element (exclusive)
+	 * @return the element, never {@code null}. All parameters are {@code null} if not present
+	 */
+	@SuppressWarnings("squid:S3776")//a hand-written tokenizer is inherently branchy, splitting it up would hurt readability
+	public static ForwardedElement parse(String forwardedHeader, int start, int end) {
+		String[] values = new String[4];
+		int len = end;
+		int pos = start;
+		while (pos < len) {
+			// parameter name: everything up to '=' or the end of the pair/element
+			int keyStart = pos;
+			char ch = 0;
+			while (pos < len) {
+				ch = forwardedHeader.charAt(pos);
+				if (ch == '=' || ch == ';' || ch == ',') {
+					break;
+				}
+				pos++;
+			}
+			if (pos >= len) {
+				break;
+			}
+			if (ch != '=') {
+				// pair without value
+				if (ch == ',') {
+					break;
+				}
+				pos++;
+				continue;
+			}
+			int key = keyOf(forwardedHeader, keyStart, pos);
+			pos = skipWhitespace(forwardedHeader, pos + 1, len);
+
+			int valueStart;
+			int valueEnd;
+			boolean escaped = false;
+			if (pos < len && forwardedHeader.charAt(pos) == '"') {
+				valueStart = ++pos;
+				while (pos < len) {
+					ch = forwardedHeader.charAt(pos);
+					if (ch == '\\') {
+						escaped = true;
+						pos++;
+					} else if (ch == '"') {
+						break;
+					}
+					pos++;
+				}
+				valueEnd = Math.min(pos, len);
+				// skip closing quote and anything up to the end of the pair
+				while (pos < len && (ch = forwardedHeader.charAt(pos)) != ';' && ch != ',') {
+					pos++;
+				}
+			} else {
+				valueStart = pos;
+				while (pos < len && (ch = forwardedHeader.charAt(pos)) != ';' && ch != ',') {
+					pos++;
+				}
+				valueEnd = pos;
+			}
+
+			if (key != KEY_UNKNOWN && values[key] == null) {
+				values[key] = value(forwardedHeader, valueStart, valueEnd, escaped);
+			}
+			if (pos < len && forwardedHeader.charAt(pos) == ',') {
+				break;
+			}
+			pos++;
+		}
+		return new ForwardedElement(values[KEY_PROTO], values[KEY_HOST], values[KEY_FOR], values[KEY_BY]);
+	}
+
+	private static int keyOf(String header, int start, int end) {
+		int keyEnd = end;
+		while (keyEnd > start && isWhitespace(header.charAt(keyEnd - 1))) {
+			keyEnd--;
+		}
+		int keyStart = keyEnd;
+		while (keyStart > start && !isWhitespace(header.charAt(keyStart - 1))) {
+			keyStart--;
+		}
+		switch (keyEnd - keyStart) {
+			case 2:
+				return header.regionMatches(true, keyStart, "by", 0, 2) ? KEY_BY : KEY_UNKNOWN;
+			case 3:
+				return header.regionMatches(true, keyStart, "for", 0, 3) ? KEY_FOR : KEY_UNKNOWN;
+			case 4:
+				return header.regionMatches(true, keyStart, "host", 0, 4) ? KEY_HOST : KEY_UNKNOWN;
+			case 5:
+				return header.regionMatches(true, keyStart, "proto", 0, 5) ? KEY_PROTO : KEY_UNKNOWN;
+			default:
+				return KEY_UNKNOWN;
+		}
+	}
+
+	/*@Nullable*/
+	private static String value(String header, int start, int end, boolean escaped) {
+		int valueStart = skipWhitespace(header, start, end);
+		int valueEnd = end;
+		while (valueEnd > valueStart && isWhitespace(header.charAt(valueEnd - 1))) {
+			valueEnd--;
+		}
+		if (valueStart == valueEnd) {
+			return null;
+		}
+		if (!escaped) {
+			return header.substring(valueStart, valueEnd);
+		}
+		StringBuilder unescaped = new StringBuilder(valueEnd - valueStart);
+		for (int i = valueStart; i < valueEnd; i++) {
+			char ch = header.charAt(i);
+			if (ch == '\\' && i + 1 < valueEnd) {
+				ch = header.charAt(++i);
+			}
+			unescaped.append(ch);
+		}
+		return unescaped.toString();
+	}
+
+	private static int skipWhitespace(String header, int start, int end) {
+		int pos = start;
+		while (pos < end && isWhitespace(header.charAt(pos))) {
+			pos++;
+		}
+		return pos;
+	}
+
+	private static boolean isWhitespace(char ch) {
+		return ch == ' ' || ch == '\t';
+	}
+
+	/**
+	 * @return value of the "proto" parameter, {@code null} if not present
+	 */
+	/*@Nullable*/
+	public String getProto() {
+		return this.proto;
+	}
+
+	/**
+	 * @return value of the "host" parameter, {@code null} if not present
+	 */
+	/*@Nullable*/
+	public String getHost() {
+		return this.host;
+	}
+
+	/**
+	 * @return value of the "for" parameter, {@code null} if not present
+	 */
+	/*@Nullable*/
+	public String getFor() {
+		return this.forValue;
+	}
+
+	/**
+	 * @return value of the "by" parameter, {@code null} if not present
+	 */
+	/*@Nullable*/
+	public String getBy() {
+		return this.by;
+	}
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright 2002-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.qaware.xff.util;
+
+/**
+ * Resolves the client node from the chain of nodes in the "for" parameters of a "Forwarded" header
+ * (<a href="http://tools.ietf.org/html/rfc7239">RFC 7239</a>) or from an "X-Forwarded-For" header.
+ * <p>Each proxy appends the node it received the request from, so the chain reads "client, proxy1, proxy2".
+ * Only the nodes appended by trusted proxies can be relied on, the nodes to their left could have been forged by the
+ * client. So the chain is walked from right to left and the first node which is not a trusted proxy is the client.
+ * Without trusted proxies this is the rightmost node, the one appended by the proxy the request was received from.
+ * If all nodes are trusted proxies, the leftmost node is the client.
+ * <p>The client node must be an IP address: "unknown", obfuscated identifiers like "_hidden" and host names yield
+ * no client node.
+ * The header is not split, the walk works on indices of the original string.
+ * A node is returned as contained in the header, e.g. "192.0.2.43" or "[2001:db8:cafe::17]:4711",
+ * see {@link #host(String)} and {@link #port(String)}.
+ */
+public final class ForwardedFor {
+
+	private ForwardedFor() {
+		//utility class
+	}
+
+	/**
+	 * Resolve the client node from the "for" parameters of a "Forwarded" header value.
+	 *
+	 * @param forwardedHeader the header value (all elements)
+	 * @param trustedProxies  trusted proxies, {@code null} to trust the proxy the request was received from only
+	 * @return the client node or {@code null} if there is no "for" parameter at all or the client node is not an
+	 * IP address
+	 */
+	/*@Nullable*/
+	public static String fromForwarded(String forwardedHeader, /*@Nullable*/ CidrTrie trustedProxies) {
+		String leftmost = null;
+		int end = forwardedHeader.length();
+		while (end >= 0) {
+			int start = previousElementStart(forwardedHeader, end);
+			String node = ForwardedElement.parse(forwardedHeader, start, end).getFor();
+			if (node != null) {
+				if (!isTrusted(node, trustedProxies)) {
+					return addressOrNull(node);
+				}
+				leftmost = node;
+			}
+			end = start - 1;
+		}
+		return leftmost;
+	}
+
+	/**
+	 * Resolve the client node from an "X-Forwarded-For" header value.
+	 *
+	 * @param xForwardedForHeader the header value (comma separated list of nodes)
+	 * @param trustedProxies      trusted proxies, {@code null} to trust the proxy the request was received from only
+	 * @return the client node or {@code null} if there is no node at all or the client node is not an IP address
+	 */
+	/*@Nullable*/
+	public static String fromXForwardedFor(String xForwardedForHeader, /*@Nullable*/ CidrTrie trustedProxies) {
+		String leftmost = null;
+		int end = xForwardedForHeader.length();
+		while (end >= 0) {
+			int start = xForwardedForHeader.lastIndexOf(',', end - 1) + 1;
+			String node = trimmed(xForwardedForHeader, start, end);
+			if (node != null) {
+				if (!isTrusted(node, trustedProxies)) {
+					return addressOrNull(node);
+				}
+				leftmost = node;
+			}
+			end = start - 1;
+		}
+		return leftmost;
+	}
+
+	/**
+	 * Host part of a node: the IP address without brackets and port.
+	 *
+	 * @param node e.g. "192.0.2.43:80", "[2001:db8:cafe::17]:4711", "2001:db8:cafe::17"
+	 * @return e.g. "192.0.2.43", "2001:db8:cafe::17"
+	 */
+	public static String host(String node) {
+		int start = hostStart(node);
+		int end = hostEnd(node);
+		return start == 0 && end == node.length() ? node : node.substring(start, end);
+	}
+
+	/**
+	 * Port part of a node.
+	 *
+	 * @param node e.g. "192.0.2.43:80", "[2001:db8:cafe::17]:4711", "192.0.2.43"
+	 * @return the port, 0 if the node contains no (numeric) port
+	 */
+	public static int port(String node) {
+		int hostEnd = hostEnd(node);
+		if (hostEnd < node.length() && node.charAt(hostEnd) == ']') {
+			hostEnd++;
+		}
+		if (hostEnd >= node.length() - 1 || node.charAt(hostEnd) != ':') {
+			return 0;
+		}
+		int port = 0;
+		for (int i = hostEnd + 1; i < node.length(); i++) {
+			char ch = node.charAt(i);
+			if (ch < '0' || ch > '9' || port > 0xFFFF) {
+				// obfuscated port, e.g. "_abc"
+				return 0;
+			}
+			port = port * 10 + (ch - '0');
+		}
+		return port <= 0xFFFF ? port : 0;
+	}
+
+	private static boolean isTrusted(String node, /*@Nullable*/ CidrTrie trustedProxies) {
+		return trustedProxies != null && trustedProxies.contains(node, hostStart(node), hostEnd(node));
+	}
+
+	/*@Nullable*/
+	private static String addressOrNull(String node) {
+		return CidrTrie.isAddress(node, hostStart(node), hostEnd(node)) ? node : null;
+	}
+
+	private static int hostStart(String node) {
+		return !node.isEmpty() && node.charAt(0) == '[' ? 1 : 0;
+	}
+
+	private static int hostEnd(String node) {
+		if (!node.isEmpty() && node.charAt(0) == '[') {
+			int bracket = node.indexOf(']');
+			return bracket == -1 ? node.length() : bracket;
+		}
+		int colon = node.indexOf(':');
+		// more than one ':' -> IPv6 without brackets and thus without port
+		return colon == -1 || node.indexOf(':', colon + 1) != -1 ? node.length() : colon;
+	}
+
+	/**
+	 * @return start index of the element which ends at the given index. ',' inside quoted-strings are skipped
+	 */
+	private static int previousElementStart(String forwardedHeader, int end) {
+		boolean quoted = false;
+		for (int i = end - 1; i >= 0; i--) {
+			char ch = forwardedHeader.charAt(i);
+			if (ch == '"' && !isEscaped(forwardedHeader, i)) {
+				quoted = !quoted;
+			} else if (ch == ',' && !quoted) {
+				return i + 1;
+			}
+		}
+		return 0;
+	}
+
+	private static boolean isEscaped(String value, int index) {
+		int backslashes = 0;
+		for (int i = index - 1; i >= 0 && value.charAt(i) == '\\'; i--) {
+			backslashes++;
+		}
+		return backslashes % 2 == 1;
+	}
+
+	/*@Nullable*/
+	private static String trimmed(String value, int start, int end) {
+		int trimmedStart = start;
+		int trimmedEnd = end;
+		while (trimmedStart < trimmedEnd && value.charAt(trimmedStart) <= ' ') {
+			trimmedStart++;
+		}
+		while (trimmedEnd > trimmedStart && value.charAt(trimmedEnd - 1) <= ' ') {
+			trimmedEnd--;
+		}
+		return trimmedStart == trimmedEnd ? null : value.substring(trimmedStart, trimmedEnd);
+	}
+}
@@ -16,13 +16,7 @@
 
 package de.qaware.xff.util;
 
-import org.apache.commons.lang3.StringUtils;
-
 import java.util.Locale;
-import java.util.Map;
-import java.util.function.Function;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 /**
  * Supported forwarded headers and their (caseInsensitive) name inside the http headers
@@ -32,13 +26,25 @@ public enum ForwardedHeader {
 	X_FORWARDED_HOST("X-Forwarded-Host"),
 	X_FORWARDED_PORT("X-Forwarded-Port"),
 	X_FORWARDED_PROTO("X-Forwarded-Proto"),
-	X_FORWARDED_PREFIX("X-Forwarded-Prefix");
+	X_FORWARDED_PREFIX("X-Forwarded-Prefix"),
+	X_FORWARDED_FOR("X-Forwarded-For");
 
-	private String httpHeaderName;
-	private static Map<String, ForwardedHeader> headerLookup = generateLookup();
+	/**
+	 * Index of the first character after "X-Forwarded-"
+	 */
+	private static final int X_FORWARDED_SUFFIX_INDEX = 12;
+
+	/**
+	 * {@link #mask() Mask} with all forwarded headers set
+	 */
+	public static final int ALL_HEADERS_MASK = (1 << values().length) - 1;
+
+	private final String httpHeaderName;
+	private final String lowerCaseName;
 
 	ForwardedHeader(String httpHeaderName) {
 		this.httpHeaderName = httpHeaderName;
+		this.lowerCaseName = httpHeaderName.toLowerCase(Locale.ENGLISH);
 	}
 
 	/**
@@ -47,8 +53,44 @@ public enum ForwardedHeader {
 	 * @param name the name
 	 * @return ForwardedHeader for name (ignores case). null if header name is not a supported forwarded header
 	 */
+	/*@Nullable*/
 	public static ForwardedHeader forName(String name) {
-		return headerLookup.get(StringUtils.defaultString(name).toLowerCase(Locale.ENGLISH));
+		return forName((CharSequence) name);
+	}
+
+	/**
+	 * ForwardedHeader for name (ignores case). null if header name is not a supported forwarded header.
+	 * <p>Does not allocate: dispatches on the length (and one distinguishing character) and compares in place.
+	 *
+	 * @param name the name
+	 * @return ForwardedHeader for name (ignores case). null if header name is not a supported forwarded header
+	 */
+	/*@Nullable*/
+	public static ForwardedHeader forName(/*@Nullable*/ CharSequence name) {
+		if (name == null) {
+			return null;
+		}
+		ForwardedHeader candidate;
+		switch (name.length()) {
+			case 9:
+				candidate = FORWARDED;
+				break;
+			case 15:
+				candidate = X_FORWARDED_FOR;
+				break;
+			case 16:
+				candidate = toLowerCase(name.charAt(X_FORWARDED_SUFFIX_INDEX)) == 'h' ? X_FORWARDED_HOST : X_FORWARDED_PORT;
+				break;
+			case 17:
+				candidate = X_FORWARDED_PROTO;
+				break;
+			case 18:
+				candidate = X_FORWARDED_PREFIX;
+				break;
+			default:
+				return null;
+		}
+		return candidate.matches(name) ? candidate : null;
 	}
 
 	/**
@@ -58,7 +100,17 @@ public enum ForwardedHeader {
 	 * @return true if given header is a "forwarded" header
 	 */
 	public static boolean isForwardedHeader(String name) {
-		return headerLookup.containsKey(StringUtils.defaultString(name).toLowerCase(Locale.ENGLISH));
+		return forName((CharSequence) name) != null;
+	}
+
+	/**
+	 * Checks if the provided  header name is a supported. Same as{@see forName}!=null
+	 *
+	 * @param name headerName
+	 * @return true if given header is a "forwarded" header
+	 */
+	public static boolean isForwardedHeader(/*@Nullable*/ CharSequence name) {
+		return forName(name) != null;
 	}
 
 	/**
@@ -70,12 +122,43 @@ public enum ForwardedHeader {
 		return httpHeaderName;
 	}
 
+	/**
+	 * Bit of this header in a set of headers represented as int, e.g. the headers present in a request.
+	 *
+	 * @return {@code 1 << ordinal()}
+	 */
+	public int mask() {
+		return 1 << ordinal();
+	}
+
+	/**
+	 * @param headerMask set of headers, see {@link #mask()}
+	 * @return true if this header is contained in the given set
+	 */
+	public boolean isIn(int headerMask) {
+		return (headerMask & mask()) != 0;
+	}
+
 	@Override
 	public String toString() {
 		return headerName();
 	}
 
-	private static Map<String, ForwardedHeader> generateLookup() {
-		return Stream.of(values()).collect(Collectors.toMap(header -> header.toString().toLowerCase(Locale.ENGLISH), Function.identity()));
+	/**
+	 * Header names are ASCII tokens, so folding A-Z is equivalent to {@code toLowerCase(Locale.ENGLISH)} here:
+	 * no non ASCII character lower cases to an ASCII character of a forwarded header name.
+	 */
+	private boolean matches(CharSequence name) {
+		// compare backwards: the common "X-Forwarded-" prefix is checked last
+		for (int i = lowerCaseName.length() - 1; i >= 0; i--) {
+			if (toLowerCase(name.charAt(i)) != lowerCaseName.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static char toLowerCase(char c) {
+		return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
 	}
 }
@@ -93,6 +93,97 @@ public final class HttpServletRequestUtil {
 	}
 
 
+	/**
+	 * Extract only the {@link ForwardedHeader forwarded headers} from the given request.
+	 * <p>Other headers are not touched at all, only the first value of each forwarded header
+	 * is looked up directly via {@link HttpServletRequest#getHeader(String)}.
+	 * Values from the initialOptions are used for headers not present in the request.
+	 *
+	 * @param servletRequest {@see HttpServletRequest}
+	 * @param initialOptions default values for forwarded headers, may be {@code null}
+	 * @return {@see HttpHeaders} containing the forwarded headers only
+	 */
+	public static HttpHeaders getForwardedHeaders(HttpServletRequest servletRequest, ForwardedHeaderInitialHeaders initialOptions) {
+		return getForwardedHeaders(servletRequest, initialOptions, ForwardedHeader.ALL_HEADERS_MASK);
+	}
+
+	/**
+	 * Same as {@link #getForwardedHeaders(HttpServletRequest, ForwardedHeaderInitialHeaders)}, but only looks up
+	 * the headers known to be present in the request.
+	 *
+	 * @param servletRequest {@see HttpServletRequest}
+	 * @param initialOptions default values for forwarded headers, may be {@code null}
+	 * @param presentHeaders {@link ForwardedHeader#mask() mask} of the forwarded headers present in the request,
+	 *                       e.g. from {@link #getForwardedHeaderMask(HttpServletRequest)}
+	 * @return {@see HttpHeaders} containing the forwarded headers only
+	 */
+	public static HttpHeaders getForwardedHeaders(HttpServletRequest servletRequest, ForwardedHeaderInitialHeaders initialOptions, int presentHeaders) {
+		HttpHeaders headers = new HttpHeaders();
+		if (presentHeaders != 0) {
+			for (ForwardedHeader forwardedHeader : ForwardedHeader.values()) {
+				if (forwardedHeader.isIn(presentHeaders)) {
+					String headerValue = servletRequest.getHeader(forwardedHeader.headerName());
+					if (headerValue != null) {
+						headers.add(forwardedHeader.headerName(), headerValue);
+					}
+				}
+			}
+		}
+		if (initialOptions != null) {
+			for (Map.Entry<String, String> entry : initialOptions.getDefaultHeaders().entrySet()) {
+				if (!headers.containsKey(entry.getKey())) {
+					headers.add(entry.getKey(), entry.getValue());
+				}
+			}
+		}
+		return headers;
+	}
+
+	/**
+	 * Scans the header names of the request once.
+	 *
+	 * @param servletRequest {@see HttpServletRequest}
+	 * @return {@link ForwardedHeader#mask() mask} of all forwarded headers present in the request, 0 if there are none
+	 */
+	public static int getForwardedHeaderMask(HttpServletRequest servletRequest) {
+		Enumeration<String> headerNames = servletRequest.getHeaderNames();
+		if (headerNames == null) {
+			return 0;
+		}
+		int mask = 0;
+		while (headerNames.hasMoreElements()) {
+			ForwardedHeader forwardedHeader = ForwardedHeader.forName(headerNames.nextElement());
+			if (forwardedHeader != null) {
+				mask |= forwardedHeader.mask();
+			}
+		}
+		return mask;
+	}
+
+	/**
+	 * All values of the given header joined by ",", as if they had been sent as a single comma separated header.
+	 *
+	 * @param servletRequest {@see HttpServletRequest}
+	 * @param headerName     name of the header
+	 * @return the combined header value or {@code null} if the header is not present
+	 */
+	/*@Nullable*/
+	public static String getCombinedHeaderValue(HttpServletRequest servletRequest, String headerName) {
+		Enumeration<String> headerValues = servletRequest.getHeaders(headerName);
+		if (headerValues == null || !headerValues.hasMoreElements()) {
+			return null;
+		}
+		String first = headerValues.nextElement();
+		if (!headerValues.hasMoreElements()) {
+			return first;
+		}
+		StringBuilder combined = new StringBuilder(first);
+		while (headerValues.hasMoreElements()) {
+			combined.append(',').append(headerValues.nextElement());
+		}
+		return combined.toString();
+	}
+
 	private static void setHeaderNames(HttpHeaders headers, HttpServletRequest servletRequest) {
 		for (Enumeration<?> headerNames = servletRequest.getHeaderNames(); headerNames.hasMoreElements(); ) {
 			String headerName = (String) headerNames.nextElement();
@@ -21,8 +21,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.servlet.http.HttpServletRequest;
-import java.io.ByteArrayOutputStream;
 import java.io.UnsupportedEncodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.util.Locale;
 
 
@@ -44,11 +45,35 @@ public class UrlPathHelper {
 	public static final String PATH_DELIMITER_STRING = "/";
 	private static final int HEX_RADIX = 16;
 	private static final String JSESSIONID = ";jsessionid=";
+	private static final int INVALID_SEQUENCE = -1;
+	private static final int CHARSET_CACHE_SIZE = 64;
+
+	/**
+	 * Charsets by the name returned from {@link #determineEncoding}. The name may be client supplied, hence bounded.
+	 */
+	private static final BoundedConcurrentCache<String, Charset> CHARSETS = new BoundedConcurrentCache<>(CHARSET_CACHE_SIZE);
+
+	/**
+	 * Names of unsupported encodings the fallback to the default encoding has already been logged for.
+	 */
+	private static final BoundedConcurrentCache<String, Boolean> UNSUPPORTED_CHARSETS = new BoundedConcurrentCache<>(CHARSET_CACHE_SIZE);
+
+	/**
+	 * Whether a class overrides one of the steps the single pass of {@link #decodeAndCleanUriString} stands in for.
+	 */
+	private static final ClassValue<Boolean> OVERRIDES_DECODING_STEPS = new ClassValue<Boolean>() {
+		@Override
+		protected Boolean computeValue(Class<?> type) {
+			return overridesDecodingSteps(type);
+		}
+	};
 
 	private boolean urlDecode = true;
 
 	private boolean removeSemicolonContent = true;
 
+	private boolean lenientDecode = false;
+
 	private String defaultEncoding = WebUtilsConstants.DEFAULT_CHARACTER_ENCODING;
 
 
@@ -84,6 +109,17 @@ public class UrlPathHelper {
 		this.removeSemicolonContent = removeSemicolonContent;
 	}
 
+	/**
+	 * Whether invalid encoded sequences (e.g. "%zz" or a trailing "%") are kept as they are instead of
+	 * throwing an {@link IllegalArgumentException} when decoding.
+	 * <p>Default is "false".
+	 *
+	 * @param lenientDecode true=keep invalid sequences undecoded
+	 */
+	public void setLenientDecode(boolean lenientDecode) {
+		this.lenientDecode = lenientDecode;
+	}
+
 	/**
 	 * Return the default character encoding to use for URL decoding.
 	 */
@@ -170,17 +206,20 @@ public class UrlPathHelper {
 	 * <li>replace all "//" by "/"</li>
 	 * </ul>
 	 */
-	private String getSanitizedPath(final String path) {
-		String sanitized = path;
-		while (true) {
-			int index = sanitized.indexOf("//");
-			if (index < 0) {
-				break;
-			} else {
-				sanitized = sanitized.substring(0, index) + sanitized.substring(index + 1);
+	private static String getSanitizedPath(final String path) {
+		int index = path.indexOf("//");
+		if (index < 0) {
+			return path;
+		}
+		StringBuilder sanitized = new StringBuilder(path.length() - 1);
+		sanitized.append(path, 0, index + 1);
+		for (int i = index + 2; i < path.length(); i++) {
+			char c = path.charAt(i);
+			if (c != '/' || sanitized.charAt(sanitized.length() - 1) != '/') {
+				sanitized.append(c);
 			}
 		}
-		return sanitized;
+		return sanitized.toString();
 	}
 
 	/**
@@ -227,12 +266,150 @@ public class UrlPathHelper {
 
 	/**
 	 * Decode the supplied URI string and strips any extraneous portion after a ';'.
+	 * <p>Same result as {@link #removeSemicolonContent}, {@link #decodeRequestString} and {@link #getSanitizedPath}
+	 * one after the other, but in a single pass over the URI. A subclass overriding one of these steps or
+	 * {@link #determineEncoding} gets the separate calls.
 	 */
 	private String decodeAndCleanUriString(HttpServletRequest request, final String uri) {
+		if (OVERRIDES_DECODING_STEPS.get(getClass())) {
+			String cleanedUri = removeSemicolonContent(uri);
+			cleanedUri = decodeRequestString(request, cleanedUri);
+			return getSanitizedPath(cleanedUri);
+		}
+		return canonicalize(uri, this.urlDecode ? determineEncoding(request) : null);
+	}
+
+	static boolean overridesDecodingSteps(Class<?> type) {
+		return overrides(type, "removeSemicolonContent", String.class) ||
+				overrides(type, "decodeRequestString", HttpServletRequest.class, String.class) ||
+				overrides(type, "determineEncoding", HttpServletRequest.class);
+	}
+
+	private static boolean overrides(Class<?> type, String name, Class<?>... parameterTypes) {
+		for (Class<?> declaringClass = type; declaringClass != UrlPathHelper.class;
+				declaringClass = declaringClass.getSuperclass()) {
+			try {
+				declaringClass.getDeclaredMethod(name, parameterTypes);
+				return true;
+			} catch (NoSuchMethodException ex) {
+				// not declared here, look at the superclass
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Strip ";" content (or ";jsessionid" only), percent-decode and collapse "//" into one output buffer.
+	 * The decoded bytes are collapsed before they are converted to chars, which is only exact for the common charsets
+	 * where no byte but '/' decodes to '/'. For other charsets and for the rare input the single pass cannot handle
+	 * (chars beyond ISO-8859-1, an escape interrupted by ';' or an invalid escape) the separate steps are used.
+	 *
+	 * @param uri     the raw URI
+	 * @param charset the encoding or {@code null} to not decode
+	 * @return the canonical URI
+	 */
+	//squid:S109: "magic number"  required for decoder logic
+	//squid:S3776: cognitive complexity, a single pass is the point of this method
+	@SuppressWarnings({"squid:S109", "squid:S3776"})
+	private String canonicalize(final String uri, /*@Nullable*/ String charset) {
+		final int length = uri.length();
+		int sessionStart = -1;
+		int sessionEnd = -1;
+		if (!this.removeSemicolonContent) {
+			sessionStart = StringUtils.indexOfIgnoreCase(uri, JSESSIONID);
+			if (sessionStart != -1) {
+				sessionEnd = uri.indexOf(';', sessionStart + JSESSIONID.length());
+				sessionEnd = (sessionEnd != -1 ? sessionEnd : length);
+			}
+		}
+		//null as long as the output equals the input up to pos
+		char[] buffer = null;
+		int count = 0;
+		boolean decoded = false;
+		int pos = 0;
+		while (pos < length) {
+			char c = uri.charAt(pos);
+			int next = pos + 1;
+			if (pos == sessionStart || (c == ';' && this.removeSemicolonContent)) {
+				next = (pos == sessionStart ? sessionEnd : uri.indexOf('/', pos));
+				if (buffer == null) {
+					buffer = startBuffer(uri, count);
+				}
+				pos = (next != -1 ? next : length);
+				continue;
+			}
+			int value = c;
+			if (charset != null && (c > 0xFF || (c == '%' && !isEscapeInPlace(uri, pos)))) {
+				return canonicalizeStepwise(uri, charset);
+			} else if (charset != null && c == '%') {
+				int decodedChar = decodePercentEncodedChar(uri, pos);
+				if (decodedChar != INVALID_SEQUENCE) {
+					value = decodedChar;
+					next = pos + 3;
+					decoded = true;
+					if (buffer == null) {
+						buffer = startBuffer(uri, count);
+					}
+				} else if (!this.lenientDecode) {
+					// throws
+					return canonicalizeStepwise(uri, charset);
+				}
+			}
+			if (value == '/' && count > 0 && (buffer != null ? buffer[count - 1] : uri.charAt(count - 1)) == '/') {
+				if (buffer == null) {
+					buffer = startBuffer(uri, count);
+				}
+			} else {
+				if (buffer != null) {
+					buffer[count] = (char) value;
+				}
+				count++;
+			}
+			pos = next;
+		}
+		if (buffer == null) {
+			return uri;
+		}
+		if (!decoded) {
+			return new String(buffer, 0, count);
+		}
+		Charset decodingCharset = getCharset(charset);
+		if (!StandardCharsets.UTF_8.equals(decodingCharset) && !StandardCharsets.ISO_8859_1.equals(decodingCharset) &&
+				!StandardCharsets.US_ASCII.equals(decodingCharset)) {
+			return canonicalizeStepwise(uri, charset);
+		}
+		byte[] bytes = new byte[count];
+		for (int i = 0; i < count; i++) {
+			bytes[i] = (byte) buffer[i];
+		}
+		return new String(bytes, decodingCharset);
+	}
+
+	private static char[] startBuffer(String uri, int count) {
+		char[] buffer = new char[uri.length()];
+		uri.getChars(0, count, buffer, 0);
+		return buffer;
+	}
+
+	/**
+	 * @return false if one of the 2 chars following the '%' at pos is a ';', i.e. the escape may span removed content
+	 */
+	private static boolean isEscapeInPlace(String uri, int pos) {
+		int end = Math.min(pos + 3, uri.length());
+		for (int i = pos + 1; i < end; i++) {
+			if (uri.charAt(i) == ';') {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private String canonicalizeStepwise(String uri, /*@Nullable*/ String charset) {
 		String cleanedUri = removeSemicolonContent(uri);
-		cleanedUri = decodeRequestString(request, cleanedUri);
-		cleanedUri = getSanitizedPath(cleanedUri);
-		return cleanedUri;
+		if (charset != null) {
+			cleanedUri = uriDecode(cleanedUri, charset);
+		}
+		return getSanitizedPath(cleanedUri);
 	}
 
 	/**
@@ -272,11 +449,13 @@ public class UrlPathHelper {
 	 * <li>A sequence "{@code %<i>xy</i>}" is interpreted as a hexadecimal representation of the character.</li>
 	 * <li>ie>Does NOT! convert  '+' into ' ' (space)</li>
 	 * </ul>
+	 * <p>A source without any {@code "%"} is returned as it is, without allocating.
 	 *
 	 * @param source  the encoded String
 	 * @param charset the character set
 	 * @return the decoded value
-	 * @throws IllegalArgumentException when the given source contains invalid encoded sequences
+	 * @throws IllegalArgumentException when the given source contains invalid encoded sequences, unless
+	 *                                  {@link #setLenientDecode(boolean) lenient}
 	 * @see java.net.URLDecoder#decode(String, String)
 	 * @since 5.0
 	 */
@@ -288,70 +467,102 @@ public class UrlPathHelper {
 	String uriDecode(String source, String charset) {
 		Validate.notNull(charset, "Charset must not be null");
 
-		final int length = source.length();
-		if (length == 0) {
+		int firstEscape = source.indexOf('%');
+		if (firstEscape == -1) {
 			return source;
 		}
 
-		ByteArrayOutputStream bos = new ByteArrayOutputStream(length);
+		final int length = source.length();
+		//the decoded bytes are never more than the source chars
+		byte[] bytes = new byte[length];
+		int count = 0;
+		while (count < firstEscape) {
+			bytes[count] = (byte) source.charAt(count);
+			count++;
+		}
 		boolean changed = false;
-		int pos = -1;
+		int pos = firstEscape - 1;
 		while (++pos < length) {
 			char currentChar = source.charAt(pos);
 			//format: %xy
 			if (currentChar == '%') {
 				//process the next 2 chars following the '%' at once to decode the original value
-				bos.write(decodePercentEncodedChar(source, pos));
-				pos += 2;
-				changed = true;
+				int decoded = decodePercentEncodedChar(source, pos);
+				if (decoded != INVALID_SEQUENCE) {
+					bytes[count++] = (byte) decoded;
+					pos += 2;
+					changed = true;
+				} else if (this.lenientDecode) {
+					bytes[count++] = (byte) currentChar;
+				} else {
+					throw illegalEncodingSequence(source, pos);
+				}
 			} else {
-				bos.write(currentChar);
+				bytes[count++] = (byte) currentChar;
 			}
 		}
 
-		return (changed ? decodeToString(source, bos, charset) : source);
+		return (changed ? new String(bytes, 0, count, getCharset(charset)) : source);
+	}
+
+	private Charset getCharset(String name) {
+		Charset charset = CHARSETS.get(name);
+		return (charset != null ? charset : lookupCharset(name));
 	}
 
-	private String decodeToString(String source, ByteArrayOutputStream bos, String providedCharset) {
-		try {
-			return bos.toString(providedCharset);
-		} catch (UnsupportedEncodingException | IllegalArgumentException ex) {
-			final String defaultCharset = getDefaultEncoding();
-			if (defaultCharset.equals(providedCharset)) {
-				throw new AssertionError("Could not decode request string. Default encoding '" + defaultCharset + "' should always be available.", ex);
+	/**
+	 * Falls back to the default encoding if the given one is not supported. The fallback is logged once per encoding,
+	 * not per request.
+	 */
+	private Charset lookupCharset(String name) {
+		boolean knownUnsupported = UNSUPPORTED_CHARSETS.get(name) != null;
+		IllegalArgumentException failure = null;
+		if (!knownUnsupported) {
+			try {
+				Charset charset = Charset.forName(name);
+				CHARSETS.put(name, charset);
+				return charset;
+			} catch (IllegalArgumentException ex) {
+				failure = ex;
 			}
+		}
+		final String defaultCharset = getDefaultEncoding();
+		if (defaultCharset.equals(name)) {
+			UnsupportedEncodingException cause = new UnsupportedEncodingException(name);
+			cause.initCause(failure);
+			throw new AssertionError("Could not decode request string. Default encoding '" + defaultCharset + "' should always be available.", cause);
+		}
+		if (!knownUnsupported) {
+			UNSUPPORTED_CHARSETS.put(name, Boolean.TRUE);
 			if (LOGGER.isWarnEnabled()) {
-				LOGGER.warn("Could not decode request string with encoding '" + providedCharset +
-						"': falling back to default encoding" + defaultCharset + ". Request string: [" + source + "]; exception message: " + ex.getMessage(), ex);
+				LOGGER.warn("Could not decode request string with encoding '" + name + "': falling back to default encoding '" +
+						defaultCharset + "', further occurrences are not logged; exception message: " + failure.getMessage(), failure);
 			}
-			return decodeToString(source, bos, defaultCharset);
 		}
+		return getCharset(defaultCharset);
 	}
 
 
 	/**
 	 * process the next 2 chars following the '%' at once to decode the original value
+	 *
+	 * @return the decoded char or {@link #INVALID_SEQUENCE} if the 2 chars are missing or not hex digits
 	 */
 	@SuppressWarnings("squid:S109")//"magic number"  required for decoder logic
-	private static char decodePercentEncodedChar(String source, int pos) {
+	private static int decodePercentEncodedChar(String source, int pos) {
 		//process the next 2 chars following the '%' at once to decode the original value
-		checkBoundsOfSequence(source, pos + 2);
+		if (pos + 2 >= source.length()) {
+			return INVALID_SEQUENCE;
+		}
 		char hex1 = source.charAt(pos + 1);
 		char hex2 = source.charAt(pos + 2);
 		int high4Bits = Character.digit(hex1, HEX_RADIX);
 		int low4Bits = Character.digit(hex2, HEX_RADIX);
 		if (high4Bits == -1 || low4Bits == -1) {
-			throw illegalEncodingSequence(source, pos);
+			return INVALID_SEQUENCE;
 		}
 		//reverse the '%xy' encoding to reconstruct the original char
-		return (char) ((high4Bits << 4) + low4Bits);
-	}
-
-
-	private static void checkBoundsOfSequence(String source, int pos) {
-		if (pos >= source.length()) {
-			throw illegalEncodingSequence(source, pos);
-		}
+		return (high4Bits << 4) + low4Bits;
 	}
 
 	private static IllegalArgumentException illegalEncodingSequence(String source, int pos) {
@@ -390,16 +601,23 @@ public class UrlPathHelper {
 				removeSemicolonContentInternal(requestUri) : removeJsessionid(requestUri));
 	}
 
-	private String removeSemicolonContentInternal(final String requestUri) {
-		String cleanedUri = requestUri;
-		int semicolonIndex = cleanedUri.indexOf(';');
+	private static String removeSemicolonContentInternal(final String requestUri) {
+		int semicolonIndex = requestUri.indexOf(';');
+		if (semicolonIndex == -1) {
+			return requestUri;
+		}
+		StringBuilder cleanedUri = new StringBuilder(requestUri.length());
+		int start = 0;
 		while (semicolonIndex != -1) {
-			int slashIndex = cleanedUri.indexOf('/', semicolonIndex);
-			String start = cleanedUri.substring(0, semicolonIndex);
-			cleanedUri = (slashIndex != -1) ? (start + cleanedUri.substring(slashIndex)) : start;
-			semicolonIndex = cleanedUri.indexOf(';', semicolonIndex);
+			cleanedUri.append(requestUri, start, semicolonIndex);
+			int slashIndex = requestUri.indexOf('/', semicolonIndex);
+			if (slashIndex == -1) {
+				return cleanedUri.toString();
+			}
+			start = slashIndex;
+			semicolonIndex = requestUri.indexOf(';', slashIndex);
 		}
-		return cleanedUri;
+		return cleanedUri.append(requestUri, start, requestUri.length()).toString();
 	}
 
 	private String removeJsessionid(final String uri) {
@@ -23,11 +23,12 @@ import org.apache.commons.collections4.multimap.ArrayListValuedHashMap;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.Validate;
 
-import java.io.ByteArrayOutputStream;
-import java.io.UnsupportedEncodingException;
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 
 
@@ -46,13 +47,21 @@ final class HierarchicalUriComponents extends UriComponents {
 
 	private static final long serialVersionUID = 1;
 
-	private static final String FOLDER_SEPARATOR = "/";
+	private static final char WINDOWS_FOLDER_SEPARATOR = '\\';
 
-	private static final String WINDOWS_FOLDER_SEPARATOR = "\\";
+	private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
 
-	private static final String TOP_PATH = "..";
+	private static final int BYTE_MASK = 0xFF;
 
-	private static final String CURRENT_PATH = ".";
+	/**
+	 * {@link #portNumber} of a port which is not a number, e.g. an unexpanded URI variable.
+	 */
+	private static final int UNPARSED_PORT = Integer.MIN_VALUE;
+
+	/**
+	 * {@link #portNumber} before the first {@link #getPort()}.
+	 */
+	private static final int PORT_NOT_YET_PARSED = Integer.MIN_VALUE + 1;
 
 	/*@Nullable*/
 	private final String userInfo;
@@ -71,6 +80,23 @@ final class HierarchicalUriComponents extends UriComponents {
 
 	private final boolean encoded;
 
+	// Lazily computed from the immutable components. A racy re-computation yields an equal result.
+	/*@Nullable*/
+	private transient String uriString;
+
+	/*@Nullable*/
+	private transient String pathString;
+
+	/*@Nullable*/
+	private transient String query;
+
+	private transient int hash;
+
+	/**
+	 * The {@link #port} parsed on first access, -1 if there is none.
+	 */
+	private transient int portNumber = PORT_NOT_YET_PARSED;
+
 	/**
 	 * Package-private constructor. All arguments are optional, and can be {@code null}.
 	 *
@@ -127,10 +153,29 @@ final class HierarchicalUriComponents extends UriComponents {
 		return this.host;
 	}
 
+	private static int parsePort(/*@Nullable*/ String port) {
+		if (port == null) {
+			return -1;
+		}
+		if (port.indexOf('{') == -1) {
+			try {
+				return Integer.parseInt(port);
+			} catch (NumberFormatException ex) {
+				// thrown again by getPort()
+			}
+		}
+		return UNPARSED_PORT;
+	}
+
 	@Override
 	public int getPort() {
-		if (this.port == null) {
-			return -1;
+		int result = this.portNumber;
+		if (result == PORT_NOT_YET_PARSED) {
+			result = parsePort(this.port);
+			this.portNumber = result;
+		}
+		if (result != UNPARSED_PORT) {
+			return result;
 		} else if (this.port.contains("{")) {
 			throw new IllegalStateException(
 					"The port contains a URI variable but has not been expanded yet: " + this.port);
@@ -141,7 +186,12 @@ final class HierarchicalUriComponents extends UriComponents {
 	@Override
 	/*@NonNull*/
 	public String getPath() {
-		return this.path.getPath();
+		String result = this.pathString;
+		if (result == null) {
+			result = this.path.getPath();
+			this.pathString = result;
+		}
+		return result;
 	}
 
 	@Override
@@ -155,14 +205,18 @@ final class HierarchicalUriComponents extends UriComponents {
 		if (this.queryParams.isEmpty()) {
 			return null;
 		}
-		StringBuilder queryBuilder = new StringBuilder();
-
-		for (Map.Entry<String, Collection<String>> entry : this.queryParams.asMap().entrySet()) {
-			String name = entry.getKey();
-			Collection<String> values = entry.getValue();
-			appendQueryParam(queryBuilder, name, values);
+		String result = this.query;
+		if (result == null) {
+			StringBuilder queryBuilder = new StringBuilder();
+			for (Map.Entry<String, Collection<String>> entry : this.queryParams.asMap().entrySet()) {
+				String name = entry.getKey();
+				Collection<String> values = entry.getValue();
+				appendQueryParam(queryBuilder, name, values);
+			}
+			result = queryBuilder.toString();
+			this.query = result;
 		}
-		return queryBuilder.toString();
+		return result;
 	}
 
 	private static void appendQueryParam(StringBuilder queryBuilder, String name, Collection<String> values) {
@@ -245,6 +299,7 @@ final class HierarchicalUriComponents extends UriComponents {
 	/**
 	 * Encode the given source into an encoded String using the rules specified
 	 * by the given component and with the given options.
+	 * <p>Returns the source itself if nothing needs to be escaped.
 	 *
 	 * @param source  the source String
 	 * @param charset the encoding of the source String
@@ -260,34 +315,110 @@ final class HierarchicalUriComponents extends UriComponents {
 		Validate.notNull(charset, "Charset must not be null");
 		Validate.notNull(type, "URIComponentType must not be null");
 
+		if (StandardCharsets.UTF_8.equals(charset)) {
+			return encodeUtf8(source, type);
+		}
 		byte[] bytes = source.getBytes(charset);
-		ByteArrayOutputStream bos = new ByteArrayOutputStream(bytes.length);
-		boolean changed = false;
-		for (byte b : bytes) {
-			if (b < 0) {
-				b += 256;
+		byte[] encoded = null;
+		int length = 0;
+		for (int i = 0; i < bytes.length; i++) {
+			int b = bytes[i] & BYTE_MASK;
+			if (encoded == null) {
+				if (type.isAllowed(b)) {
+					continue;
+				}
+				//first char to escape: copy the unchanged bytes once
+				encoded = new byte[bytes.length * 3];
+				System.arraycopy(bytes, 0, encoded, 0, i);
+				length = i;
 			}
-			if (type.isAllowedCharacter(b)) {
-				bos.write(b);
+			if (type.isAllowed(b)) {
+				encoded[length++] = (byte) b;
 			} else {
-				bos.write('%');
-				//split byte into two 4 bit nibbles and convert them to characters
-				char hex1 = Character.toUpperCase(Character.forDigit((b >> 4) & 0xF, 16));
-				char hex2 = Character.toUpperCase(Character.forDigit(b & 0xF, 16));
-				bos.write(hex1);
-				bos.write(hex2);
-				changed = true;
+				encoded[length++] = '%';
+				encoded[length++] = (byte) HEX_DIGITS[b >> 4];
+				encoded[length++] = (byte) HEX_DIGITS[b & 0xF];
 			}
 		}
-		return (changed ? bufferToString(charset, bos) : source);
+		return (encoded != null ? new String(encoded, 0, length, charset) : source);
 	}
 
-	private static String bufferToString(Charset charset, ByteArrayOutputStream bos) {
-		try {
-			return bos.toString(charset.name());
-		} catch (UnsupportedEncodingException e) {
-			throw new AssertionError("Existing charsets cannot be unsupported", e);
+	/**
+	 * UTF-8 encoding without intermediate byte array: scans the chars and returns the source itself if
+	 * no char needs to be escaped. Unpaired surrogates are replaced by '?' as done by {@link String#getBytes(Charset)},
+	 * unless that is the only change.
+	 */
+	@SuppressWarnings("squid:S109")//"magic number"  required for encoder logic
+	private static String encodeUtf8(String source, URIComponentType type) {
+		int length = source.length();
+		int start = 0;
+		while (start < length && type.isAllowed(source.charAt(start))) {
+			start++;
+		}
+		if (start == length) {
+			return source;
+		}
+		StringBuilder result = new StringBuilder(length + 2 * (length - start) + 16);
+		result.append(source, 0, start);
+		boolean escaped = false;
+		for (int i = start; i < length; i++) {
+			char c = source.charAt(i);
+			if (c < 0x80) {
+				escaped |= appendAscii(result, c, type);
+			} else if (Character.isSurrogate(c) && !isSurrogatePair(source, i)) {
+				escaped |= appendAscii(result, '?', type);
+			} else {
+				i = appendUtf8Escaped(result, source, i);
+				escaped = true;
+			}
+		}
+		return (escaped ? result.toString() : source);
+	}
+
+	private static boolean isSurrogatePair(String source, int index) {
+		return Character.isHighSurrogate(source.charAt(index)) && index + 1 < source.length() &&
+				Character.isLowSurrogate(source.charAt(index + 1));
+	}
+
+	/**
+	 * Append the escaped UTF-8 bytes of the non ASCII char or surrogate pair at the given index.
+	 *
+	 * @return the index of the last char consumed
+	 */
+	@SuppressWarnings("squid:S109")//"magic number"  required for encoder logic
+	private static int appendUtf8Escaped(StringBuilder result, String source, int index) {
+		int codePoint = source.codePointAt(index);
+		if (codePoint < 0x800) {
+			appendEscaped(result, 0xC0 | (codePoint >> 6));
+		} else {
+			if (codePoint < 0x10000) {
+				appendEscaped(result, 0xE0 | (codePoint >> 12));
+			} else {
+				appendEscaped(result, 0xF0 | (codePoint >> 18));
+				appendEscaped(result, 0x80 | ((codePoint >> 12) & 0x3F));
+			}
+			appendEscaped(result, 0x80 | ((codePoint >> 6) & 0x3F));
+		}
+		appendEscaped(result, 0x80 | (codePoint & 0x3F));
+		return index + Character.charCount(codePoint) - 1;
+	}
+
+	/**
+	 * @return true if the char was escaped
+	 */
+	private static boolean appendAscii(StringBuilder result, char c, URIComponentType type) {
+		if (type.isAllowed(c)) {
+			result.append(c);
+			return false;
 		}
+		appendEscaped(result, c);
+		return true;
+	}
+
+	@SuppressWarnings("squid:S109")//"magic number"  required for encoder logic
+	private static void appendEscaped(StringBuilder result, int b) {
+		//split byte into two 4 bit nibbles and convert them to characters
+		result.append('%').append(HEX_DIGITS[b >> 4]).append(HEX_DIGITS[b & 0xF]);
 	}
 
 	private URIComponentType getHostType() {
@@ -374,68 +505,118 @@ final class HierarchicalUriComponents extends UriComponents {
 	 * @param path the original path
 	 * @return the normalized path
 	 */
-	private static String cleanPath(String path) {
+	static String cleanPath(String path) {
 		if (StringUtils.isBlank(path)) {
 			return path;
 		}
-		//bring to common form
-		String pathToUse = StringUtils.replace(path, WINDOWS_FOLDER_SEPARATOR, FOLDER_SEPARATOR);
+		final int length = path.length();
 
 		// Strip prefix from path to analyze, to not treat it as part of the
 		// first path element. This is necessary to correctly parse paths like
 		// "file:core/../core/io/Resource.class", where the ".." should just
 		// strip the first "core" directory while keeping the "file:" prefix.
-		int prefixIndex = pathToUse.indexOf(':');
-		String prefix = "";
-		if (prefixIndex != -1) {
-			prefix = pathToUse.substring(0, prefixIndex + 1);
-			if (prefix.contains(FOLDER_SEPARATOR)) {
-				prefix = "";
+		int start = 0;
+		int prefixIndex = path.indexOf(':');
+		if (prefixIndex != -1 && !containsSeparator(path, 0, prefixIndex)) {
+			start = prefixIndex + 1;
+		}
+		if (start < length && isSeparator(path.charAt(start))) {
+			start++;
+		}
+		if (path.indexOf(WINDOWS_FOLDER_SEPARATOR) == -1 && !containsDotSegment(path, start)) {
+			return path;
+		}
+
+		//single pass over the path elements, each ".." removes the last element written unless that is a ".." too
+		char[] result = new char[length];
+		for (int i = 0; i < start; i++) {
+			result[i] = toSeparator(path.charAt(i));
+		}
+		int count = start;
+		int elements = 0;
+		int normalElements = 0;
+		int elementStart = start;
+		for (int i = start; i <= length; i++) {
+			if (i < length && !isSeparator(path.charAt(i))) {
+				continue;
+			}
+			int elementLength = i - elementStart;
+			if (isDotSegment(path, elementStart, elementLength, 1)) {
+				// Points to current directory - drop it.
+			} else if (isDotSegment(path, elementStart, elementLength, 2) && normalElements > 0) {
+				// Merging path element with element corresponding to top path.
+				while (count > start && result[count - 1] != PATH_DELIMITER) {
+					count--;
+				}
+				if (count > start) {
+					// the separator in front of the removed element
+					count--;
+				}
+				elements--;
+				normalElements--;
 			} else {
-				pathToUse = pathToUse.substring(prefixIndex + 1);
+				if (elements > 0) {
+					result[count++] = PATH_DELIMITER;
+				}
+				path.getChars(elementStart, i, result, count);
+				count += elementLength;
+				elements++;
+				if (!isDotSegment(path, elementStart, elementLength, 2)) {
+					normalElements++;
+				}
 			}
+			elementStart = i + 1;
 		}
+		return new String(result, 0, count);
+	}
 
-		if (pathToUse.startsWith(FOLDER_SEPARATOR)) {
-			prefix = prefix + FOLDER_SEPARATOR;
-			pathToUse = pathToUse.substring(1);
-		}
-		//normalize path by splitting into distinct path tokens
-		List<String> pathElements = splitIntoPathElements(pathToUse);
-		return prefix + String.join(FOLDER_SEPARATOR, pathElements);
+	private static boolean isSeparator(char c) {
+		return c == PATH_DELIMITER || c == WINDOWS_FOLDER_SEPARATOR;
 	}
 
-	private static List<String> splitIntoPathElements(String pathToUse) {
-		String[] pathArray = StringUtils.splitPreserveAllTokens(pathToUse, FOLDER_SEPARATOR);
-		List<String> pathElements = new LinkedList<>();
-		int tops = 0;
+	private static char toSeparator(char c) {
+		return c == WINDOWS_FOLDER_SEPARATOR ? PATH_DELIMITER : c;
+	}
 
-		for (int i = pathArray.length - 1; i >= 0; i--) {
-			String element = pathArray[i];
-			if (CURRENT_PATH.equals(element)) {
-				// Points to current directory - drop it.
-				continue;
+	private static boolean containsSeparator(String path, int start, int end) {
+		for (int i = start; i < end; i++) {
+			if (isSeparator(path.charAt(i))) {
+				return true;
 			}
+		}
+		return false;
+	}
 
-			if (TOP_PATH.equals(element)) {
-				// Registering top path found.
-				tops++;
-			} else {
-				if (tops > 0) {
-					// Merging path element with element corresponding to top path.
-					tops--;
-				} else {
-					// Normal path element found.
-					pathElements.add(0, element);
+	/**
+	 * @return true if any element of the path starting at the given index is "." or ".."
+	 */
+	private static boolean containsDotSegment(String path, int start) {
+		int elementStart = start;
+		for (int i = start; i <= path.length(); i++) {
+			if (i == path.length() || isSeparator(path.charAt(i))) {
+				int elementLength = i - elementStart;
+				if (isDotSegment(path, elementStart, elementLength, 1) || isDotSegment(path, elementStart, elementLength, 2)) {
+					return true;
 				}
+				elementStart = i + 1;
 			}
 		}
+		return false;
+	}
 
-		// Remaining top paths need to be retained.
-		for (int i = 0; i < tops; i++) {
-			pathElements.add(0, TOP_PATH);
+	/**
+	 * @return true if the element consists of exactly the given number of dots
+	 */
+	private static boolean isDotSegment(String path, int elementStart, int elementLength, int dots) {
+		if (elementLength != dots) {
+			return false;
+		}
+		for (int i = elementStart; i < elementStart + elementLength; i++) {
+			if (path.charAt(i) != '.') {
+				return false;
+			}
 		}
-		return pathElements;
+		return true;
 	}
 
 
@@ -446,6 +627,15 @@ final class HierarchicalUriComponents extends UriComponents {
 	 */
 	@Override
 	public String toUriString() {
+		String result = this.uriString;
+		if (result == null) {
+			result = buildUriString();
+			this.uriString = result;
+		}
+		return result;
+	}
+
+	private String buildUriString() {
 		StringBuilder uriBuilder = new StringBuilder();
 		if (getScheme() != null) {
 			uriBuilder.append(getScheme());
@@ -554,15 +744,24 @@ final class HierarchicalUriComponents extends UriComponents {
 
 	@Override
 	public int hashCode() {
-		int result = Objects.hashCode(getScheme());
-		result = 31 * result + Objects.hashCode(this.userInfo);
-		result = 31 * result + Objects.hashCode(this.host);
-		result = 31 * result + Objects.hashCode(this.port);
-		result = 31 * result + this.path.hashCode();
-		result = 31 * result + this.queryParams.hashCode();
-		result = 31 * result + Objects.hashCode(getFragment());
+		int result = this.hash;
+		if (result == 0) {
+			result = Objects.hashCode(getScheme());
+			result = 31 * result + Objects.hashCode(this.userInfo);
+			result = 31 * result + Objects.hashCode(this.host);
+			result = 31 * result + Objects.hashCode(this.port);
+			result = 31 * result + this.path.hashCode();
+			result = 31 * result + this.queryParams.hashCode();
+			result = 31 * result + Objects.hashCode(getFragment());
+			this.hash = result;
+		}
 		return result;
 	}
 
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		// transient fields are not initialized on deserialization
+		this.portNumber = PORT_NOT_YET_PARSED;
+	}
 
 }
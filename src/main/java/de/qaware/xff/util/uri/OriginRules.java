@@ -0,0 +1,85 @@
+/*
+ * Copyright 2002-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.qaware.xff.util.uri;
+
+import org.apache.commons.lang3.StringUtils;
+
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * Rules for the scheme, host and port of a request origin, shared by {@link UriComponentsBuilder} and the
+ * precompiled origin of the filter so both derive the same origin.
+ */
+public final class OriginRules {
+
+	private static final int HTTP_PORT = 80;
+	private static final int HTTPS_PORT = 443;
+
+	private OriginRules() {
+		//utility class
+	}
+
+	/**
+	 * Host of the request as contained in a URI: IPv6 literals returned without brackets by some containers are
+	 * enclosed in brackets.
+	 *
+	 * @param request the request
+	 * @return the host, {@code null} if the request has no server name
+	 */
+	/*@Nullable*/
+	public static String getHost(HttpServletRequest request) {
+		String serverName = request.getServerName();
+		if (StringUtils.isEmpty(serverName)) {
+			return null;
+		}
+		return (serverName.indexOf(':') != -1 && serverName.charAt(0) != '[') ? '[' + serverName + ']' : serverName;
+	}
+
+	/**
+	 * Whether the port of the request is the default port of its scheme and thus not part of the URI,
+	 * as done by {@link HttpServletRequest#getRequestURL()}. The scheme is compared ignoring case.
+	 *
+	 * @param scheme the scheme returned by {@link HttpServletRequest#getScheme()}
+	 * @param port   the port returned by {@link HttpServletRequest#getServerPort()}
+	 * @return true for http/80 and https/443
+	 */
+	public static boolean isDefaultPort(/*@Nullable*/ String scheme, int port) {
+		return (port == HTTP_PORT && "http".equalsIgnoreCase(scheme)) || (port == HTTPS_PORT && "https".equalsIgnoreCase(scheme));
+	}
+
+	/**
+	 * Whether a forwarded port is the default port of the forwarded scheme and thus removed from the URI.
+	 * The scheme is compared as sent.
+	 *
+	 * @param scheme the resolved scheme
+	 * @param port   the resolved port
+	 * @return true for http/80 and https/443
+	 */
+	public static boolean isForwardedDefaultPort(/*@Nullable*/ String scheme, int port) {
+		return (port == HTTP_PORT && "http".equals(scheme)) || (port == HTTPS_PORT && "https".equals(scheme));
+	}
+
+	/**
+	 * Same as {@link #isForwardedDefaultPort(String, int)} for the port as contained in the URI.
+	 *
+	 * @param scheme the resolved scheme
+	 * @param port   the resolved port, may be {@code null}
+	 * @return true for http/80 and https/443
+	 */
+	public static boolean isForwardedDefaultPort(/*@Nullable*/ String scheme, /*@Nullable*/ String port) {
+		return ("80".equals(port) && "http".equals(scheme)) || ("443".equals(port) && "https".equals(scheme));
+	}
+}
@@ -18,6 +18,8 @@ package de.qaware.xff.util.uri;
 /**
  * Enumeration used to identify the allowed characters per URI component.
  * <p>Contains methods to indicate whether a given character is valid in a specific URI component.
+ * The rules are evaluated once per component into a 128 bit bitmap of the allowed ASCII characters,
+ * see {@link #isAllowed(int)}.
  *
  * @see <a href="http://www.ietf.org/rfc/rfc3986.txt">RFC 3986</a>
  */
@@ -98,6 +100,46 @@ enum URIComponentType {
 		}
 	};
 
+	private static final int ASCII_LIMIT = 128;
+	private static final int BITS_PER_LONG = 64;
+
+	//allowed characters 0-63
+	private final long allowedLow;
+	//allowed characters 64-127
+	private final long allowedHigh;
+
+	//squid:S1699 the overridden isAllowedCharacter methods are stateless
+	@SuppressWarnings("squid:S1699")
+	URIComponentType() {
+		long low = 0;
+		long high = 0;
+		for (int c = 0; c < ASCII_LIMIT; c++) {
+			if (isAllowedCharacter(c)) {
+				if (c < BITS_PER_LONG) {
+					low |= 1L << c;
+				} else {
+					high |= 1L << (c - BITS_PER_LONG);
+				}
+			}
+		}
+		this.allowedLow = low;
+		this.allowedHigh = high;
+	}
+
+	/**
+	 * Same as {@link #isAllowedCharacter(int)}, but a single lookup in the precomputed bitmap.
+	 * No character outside of ASCII is allowed in any URI component.
+	 *
+	 * @param c character to check
+	 * @return {@code true} if the character is allowed; {@code false} otherwise
+	 */
+	final boolean isAllowed(int c) {
+		if (c < BITS_PER_LONG) {
+			return c >= 0 && (this.allowedLow & (1L << c)) != 0;
+		}
+		return c < ASCII_LIMIT && (this.allowedHigh & (1L << (c - BITS_PER_LONG))) != 0;
+	}
+
 	/**
 	 * Indicates whether the given character is allowed in this URI component.
 	 *
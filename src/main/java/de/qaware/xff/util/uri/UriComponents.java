@@ -25,8 +25,6 @@ import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 
 /**
@@ -47,10 +45,6 @@ public abstract class UriComponents implements Serializable {
 	public static final char PATH_DELIMITER = '/';
 	public static final String PATH_DELIMITER_STRING = "/";
 
-	/**
-	 * Captures URI template variable names
-	 */
-	private static final Pattern NAMES_PATTERN = Pattern.compile("\\{([^/]+?)\\}");
 	private static final int HEY_RADIX = 16;
 
 
@@ -145,7 +139,7 @@ public abstract class UriComponents implements Serializable {
 			char currentChar = source.charAt(pos);
 			if (currentChar == '%') {
 				pos = verifyPercentEncodeSequence(source, length, pos);
-			} else if (!type.isAllowedCharacter(currentChar)) {
+			} else if (!type.isAllowed(currentChar)) {
 				throw new IllegalArgumentException("Invalid character '" + currentChar + "' for " +
 						type.name() + " in \"" + source + "\"");
 			}
@@ -214,21 +208,50 @@ public abstract class UriComponents implements Serializable {
 		if (checkedSource.indexOf(':') != -1) {
 			checkedSource = sanitizeSource(checkedSource);
 		}
-		Matcher variableNamesMatcher = NAMES_PATTERN.matcher(checkedSource);
-		StringBuffer sb = new StringBuffer();
-		while (variableNamesMatcher.find()) {
-			String match = variableNamesMatcher.group(1);
-			String variableName = getVariableName(match);
-			Object variableValue = uriVariables.getValue(variableName);
-			if (UriTemplateVariables.SKIP_VALUE.equals(variableValue)) {
+		StringBuilder sb = new StringBuilder(checkedSource.length());
+		int appended = 0;
+		int variableStart = checkedSource.indexOf('{');
+		while (variableStart != -1) {
+			int variableEnd = findVariableEnd(checkedSource, variableStart);
+			if (variableEnd < 0) {
+				// no variable can start before the '/' or end of input at which the search stopped
+				variableStart = checkedSource.indexOf('{', -variableEnd);
 				continue;
 			}
-			String variableValueString = getVariableValueAsString(variableValue);
-			String replacement = Matcher.quoteReplacement(variableValueString);
-			variableNamesMatcher.appendReplacement(sb, replacement);
+			String variableName = getVariableName(checkedSource.substring(variableStart + 1, variableEnd));
+			Object variableValue = uriVariables.getValue(variableName);
+			if (!UriTemplateVariables.SKIP_VALUE.equals(variableValue)) {
+				sb.append(checkedSource, appended, variableStart).append(getVariableValueAsString(variableValue));
+				appended = variableEnd + 1;
+			}
+			variableStart = checkedSource.indexOf('{', variableEnd + 1);
 		}
-		variableNamesMatcher.appendTail(sb);
-		return sb.toString();
+		return sb.append(checkedSource, appended, checkedSource.length()).toString();
+	}
+
+	/**
+	 * Find the end of a URI template variable as "{name}" with a non empty name that does not contain '/'.
+	 * Same as the first match of the regular expression "\\{([^/]+?)\\}", but in linear time: a '{' without
+	 * matching '}' does not cause a rescan from the next '{'.
+	 *
+	 * @param source        the source
+	 * @param variableStart index of the '{'
+	 * @return index of the closing '}' or, if there is none, the negated index where the search stopped
+	 * (the next '/' or the end of the source)
+	 */
+	private static int findVariableEnd(String source, int variableStart) {
+		int i = variableStart + 1;
+		while (i < source.length()) {
+			char c = source.charAt(i);
+			if (c == '/') {
+				break;
+			}
+			if (c == '}' && i > variableStart + 1) {
+				return i;
+			}
+			i++;
+		}
+		return -i;
 	}
 
 	/**
@@ -330,6 +353,17 @@ public abstract class UriComponents implements Serializable {
 	 */
 	public abstract UriComponents normalize();
 
+	/**
+	 * Normalize the given path the same way {@link #normalize()} does, without building {@code UriComponents}.
+	 *
+	 * @param path the path, may be {@code null}
+	 * @return the normalized path
+	 */
+	/*@Nullable*/
+	public static String normalizePath(/*@Nullable*/ String path) {
+		return HierarchicalUriComponents.cleanPath(path);
+	}
+
 	/**
 	 * Return a URI String from this {@code UriComponents} instance.
 	 *
@@ -16,6 +16,8 @@
 package de.qaware.xff.util.uri;
 
 import de.qaware.xff.filter.ForwardedHeaderInitialHeaders;
+import de.qaware.xff.util.ForwardedElement;
+import de.qaware.xff.util.ForwardedHeader;
 import de.qaware.xff.util.HttpHeaders;
 import de.qaware.xff.util.HttpServletRequestUtil;
 import org.apache.commons.collections4.MultiValuedMap;
@@ -29,8 +31,6 @@ import java.net.URI;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import static de.qaware.xff.util.ForwardedHeader.*;
 import static de.qaware.xff.util.HttpServletRequestUtil.getFirstValueToken;
@@ -65,61 +65,12 @@ import static org.apache.commons.lang3.StringUtils.isNotBlank;
 @SuppressWarnings("squid:S1448")//to many methods -> URI's are complex
 public class UriComponentsBuilder {
 
-    private static final Pattern QUERY_PARAM_PATTERN = Pattern.compile("([^&=]+)(=?)([^&]+)?");
-    private static final int QUERY_PARAM_PATTERN_NAME_INDEX = 1;
-    private static final int QUERY_PARAM_PATTERN_EQ_INDEX = 2;
-    private static final int QUERY_PARAM_PATTERN_VALUE_INDEX = 3;
-
-    private static final String SCHEME_PATTERN = "([^:/?#]+):";
-
-    private static final String HTTP_PATTERN = "(?i)(http|https):";
-
-    private static final String USERINFO_PATTERN = "([^@\\[/?#]*)";
-
-    private static final String HOST_IPV4_PATTERN = "[^\\[/?#:]*";
-
-    private static final String HOST_IPV6_PATTERN = "\\[[\\p{XDigit}\\:\\.]*[%\\p{Alnum}]*\\]";
-
-    private static final String HOST_PATTERN = "(" + HOST_IPV6_PATTERN + "|" + HOST_IPV4_PATTERN + ")";
-
-    private static final String PORT_PATTERN = "(\\d*(?:\\{[^/]+?\\})?)";
-
-    private static final String PATH_PATTERN = "([^?#]*)";
-
-    private static final String QUERY_PATTERN = "([^#]*)";
-
-
-    private static final String LAST_PATTERN = "(.*)";
-
-    // Regex patterns that matches URIs. See RFC 3986, appendix B
-    private static final Pattern URI_PATTERN = Pattern.compile(
-            "^(" + SCHEME_PATTERN + ")?" + "(//(" + USERINFO_PATTERN + "@)?" + HOST_PATTERN + "(:" + PORT_PATTERN +
-                    ")?" + ")?" + PATH_PATTERN + "(\\?" + QUERY_PATTERN + ")?" + "(#" + LAST_PATTERN + ")?");
-
-    private static final int URI_PATTERN_SCHEME_INDEX = 2;
-    private static final int URI_PATTERN_USER_INFO_INDEX = 5;
-    private static final int URI_PATTERN_HOST_INDEX = 6;
-    private static final int URI_PATTERN_PORT_INDEX = 8;
-    private static final int URI_PATTERN_PATH_INDEX = 9;
-    private static final int URI_PATTERN_QUERY_INDEX = 11;
-    private static final int URI_PATTERN_FRAGMENT_INDEX = 13;
-
-
-    private static final Pattern HTTP_URL_PATTERN = Pattern.compile(
-            "^" + HTTP_PATTERN + "(//(" + USERINFO_PATTERN + "@)?" + HOST_PATTERN + "(:" + PORT_PATTERN + ")?" + ")?" +
-                    PATH_PATTERN + "(\\?" + LAST_PATTERN + ")?");
-
-    private static final int HTTP_URL_PATTERN_SCHEME_INDEX = 1;
-    private static final int HTTP_URL_PATTERN_USER_INFO_INDEX = 4;
-    private static final int HTTP_URL_PATTERN_HOST_INDEX = 5;
-    private static final int HTTP_URL_PATTERN_PORT_INDEX = 7;
-    private static final int HTTP_URL_PATTERN_PATH_INDEX = 8;
-    private static final int HTTP_URL_PATTERN_QUERY_INDEX = 10;
-
-    private static final Pattern FORWARDED_HOST_PATTERN = Pattern.compile("host=\"?([^;,\"]+)\"?", Pattern.CASE_INSENSITIVE);
-
-    private static final Pattern FORWARDED_PROTO_PATTERN = Pattern.compile("proto=\"?([^;,\"]+)\"?", Pattern.CASE_INSENSITIVE);
+    /**
+     * Returned by {@link #parsePort(String, int, int)} for values which are not a port number.
+     */
+    private static final int INVALID_PORT = -2;
 
+    private static final int MAX_PORT = 0xFFFF;
 
     /*@Nullable*/
     private String scheme;
@@ -143,6 +94,9 @@ public class UriComponentsBuilder {
     /*@Nullable*/
     private String fragment;
 
+    private boolean lenientForwardedHeaders;
+
+    private boolean malformedForwardedHeader;
 
     /**
      * Default constructor. Protected to prevent direct instantiation.
@@ -170,6 +124,7 @@ public class UriComponentsBuilder {
         this.pathBuilder = other.pathBuilder.cloneBuilder();
         this.queryParams.putAll(other.queryParams);
         this.fragment = other.fragment;
+        this.malformedForwardedHeader = other.malformedForwardedHeader;
     }
 
 
@@ -225,29 +180,25 @@ public class UriComponentsBuilder {
      */
     public static UriComponentsBuilder fromUriString(String uri) {
         Validate.notNull(uri, "URI must not be null");
-        Matcher matcher = URI_PATTERN.matcher(uri);
-        if (!matcher.matches()) {
+        UriReference reference = UriReference.parse(uri);
+        if (reference == null) {
             throw new IllegalArgumentException("[" + uri + "] is not a valid URI");
         }
         UriComponentsBuilder builder = new UriComponentsBuilder();
-        String scheme = matcher.group(URI_PATTERN_SCHEME_INDEX);
-        String userInfo = matcher.group(URI_PATTERN_USER_INFO_INDEX);
-        String host = matcher.group(URI_PATTERN_HOST_INDEX);
-        String port = matcher.group(URI_PATTERN_PORT_INDEX);
-        String path = matcher.group(URI_PATTERN_PATH_INDEX);
-        String query = matcher.group(URI_PATTERN_QUERY_INDEX);
-        String fragment = matcher.group(URI_PATTERN_FRAGMENT_INDEX);
+        String scheme = reference.getScheme();
+        String fragment = reference.getFragment();
         builder.scheme(scheme);
         if (isOpaque(uri, scheme)) {
             setSchemeSpecificPart(uri, builder, scheme, fragment);
         } else {
-            builder.userInfo(userInfo);
-            builder.host(host);
+            builder.userInfo(reference.getUserInfo());
+            builder.host(reference.getHost());
+            String port = reference.getPort();
             if (StringUtils.isNotEmpty(port)) {
                 builder.port(port);
             }
-            builder.path(path);
-            builder.query(query);
+            builder.path(reference.getPath());
+            builder.query(reference.getQuery());
         }
         if (isNotBlank(fragment)) {
             builder.fragment(fragment);
@@ -290,27 +241,26 @@ public class UriComponentsBuilder {
      */
     public static UriComponentsBuilder fromHttpUrl(String httpUrl) {
         Validate.notNull(httpUrl, "HTTP URL must not be null");
-        Matcher matcher = HTTP_URL_PATTERN.matcher(httpUrl);
-        if (matcher.matches()) {
-            UriComponentsBuilder builder = new UriComponentsBuilder();
-            String scheme = matcher.group(HTTP_URL_PATTERN_SCHEME_INDEX);
-            builder.scheme(scheme != null ? scheme.toLowerCase(Locale.ENGLISH) : null);
-            builder.userInfo(matcher.group(HTTP_URL_PATTERN_USER_INFO_INDEX));
-            String host = matcher.group(HTTP_URL_PATTERN_HOST_INDEX);
-            if (StringUtils.isNotEmpty(scheme) && StringUtils.isEmpty(host)) {
-                throw new IllegalArgumentException("[" + httpUrl + "] is not a valid HTTP URL");
-            }
-            builder.host(host);
-            String port = matcher.group(HTTP_URL_PATTERN_PORT_INDEX);
-            if (StringUtils.isNotEmpty(port)) {
-                builder.port(port);
-            }
-            builder.path(matcher.group(HTTP_URL_PATTERN_PATH_INDEX));
-            builder.query(matcher.group(HTTP_URL_PATTERN_QUERY_INDEX));
-            return builder;
-        } else {
+        UriReference reference = UriReference.parseHttpUrl(httpUrl);
+        if (reference == null) {
             throw new IllegalArgumentException("[" + httpUrl + "] is not a valid HTTP URL");
         }
+        UriComponentsBuilder builder = new UriComponentsBuilder();
+        String scheme = reference.getScheme();
+        builder.scheme(scheme != null ? scheme.toLowerCase(Locale.ENGLISH) : null);
+        builder.userInfo(reference.getUserInfo());
+        String host = reference.getHost();
+        if (StringUtils.isNotEmpty(scheme) && StringUtils.isEmpty(host)) {
+            throw new IllegalArgumentException("[" + httpUrl + "] is not a valid HTTP URL");
+        }
+        builder.host(host);
+        String port = reference.getPort();
+        if (StringUtils.isNotEmpty(port)) {
+            builder.port(port);
+        }
+        builder.path(reference.getPath());
+        builder.query(reference.getQuery());
+        return builder;
     }
 
     /**
@@ -325,9 +275,64 @@ public class UriComponentsBuilder {
      * @since 4.1.5
      */
     public static UriComponentsBuilder fromHttpRequest(HttpServletRequest request, ForwardedHeaderInitialHeaders initialOptions) {
-        URI uri = HttpServletRequestUtil.getURI(request);
-        HttpHeaders headers = HttpServletRequestUtil.getHeaders(request, initialOptions);
-        return fromUri(uri).adaptFromForwardedHeaders(headers);
+        return fromHttpRequest(request, initialOptions, ForwardedHeader.ALL_HEADERS_MASK);
+    }
+
+    /**
+     * Same as {@link #fromHttpRequest(HttpServletRequest, ForwardedHeaderInitialHeaders)}, but only looks up
+     * the forwarded headers known to be present in the request.
+     *
+     * @param request        the source request
+     * @param initialOptions default values for forwarded headers, may be {@code null}
+     * @param presentHeaders {@link ForwardedHeader#mask() mask} of the forwarded headers present in the request
+     * @return the URI components of the URI
+     */
+    public static UriComponentsBuilder fromHttpRequest(HttpServletRequest request, ForwardedHeaderInitialHeaders initialOptions, int presentHeaders) {
+        HttpHeaders headers = HttpServletRequestUtil.getForwardedHeaders(request, initialOptions, presentHeaders);
+        return fromServletRequest(request).adaptFromForwardedHeaders(headers);
+    }
+
+    /**
+     * Same as {@link #fromHttpRequest(HttpServletRequest, ForwardedHeaderInitialHeaders, int)}, but malformed
+     * forwarded values don't throw a {@link NumberFormatException}: a port which is not a number between 0 and 65535
+     * causes the "X-Forwarded-Port" value or the "X-Forwarded-Host"/"Forwarded: host=" value to be skipped, as if it
+     * had not been sent, and {@link #hasMalformedForwardedHeader()} to return true.
+     *
+     * @param request        the source request
+     * @param initialOptions default values for forwarded headers, may be {@code null}
+     * @param presentHeaders {@link ForwardedHeader#mask() mask} of the forwarded headers present in the request
+     * @return the URI components of the URI
+     */
+    public static UriComponentsBuilder fromHttpRequestLenient(HttpServletRequest request, ForwardedHeaderInitialHeaders initialOptions, int presentHeaders) {
+        HttpHeaders headers = HttpServletRequestUtil.getForwardedHeaders(request, initialOptions, presentHeaders);
+        UriComponentsBuilder builder = fromServletRequest(request);
+        builder.lenientForwardedHeaders = true;
+        return builder.adaptFromForwardedHeaders(headers);
+    }
+
+    /**
+     * Same components as {@code fromUri(HttpServletRequestUtil.getURI(request))}, but taken directly from the servlet
+     * getters: no {@code getRequestURL()} buffer and no {@link URI} parsing.
+     * The port is omitted if it is not set or the default port of the scheme (as done by {@code getRequestURL()}).
+     */
+    private static UriComponentsBuilder fromServletRequest(HttpServletRequest request) {
+        UriComponentsBuilder builder = new UriComponentsBuilder();
+        String scheme = request.getScheme();
+        builder.scheme = scheme;
+        builder.host = OriginRules.getHost(request);
+        int port = request.getServerPort();
+        if (port > 0 && !OriginRules.isDefaultPort(scheme, port)) {
+            builder.port = String.valueOf(port);
+        }
+        String path = request.getRequestURI();
+        if (StringUtils.isNotEmpty(path)) {
+            builder.pathBuilder.addPath(path);
+        }
+        String query = request.getQueryString();
+        if (isNotBlank(query)) {
+            builder.query(query);
+        }
+        return builder;
     }
 
     /**
@@ -346,6 +351,15 @@ public class UriComponentsBuilder {
     }
 
 
+    /**
+     * @return true if {@link #fromHttpRequestLenient(HttpServletRequest, ForwardedHeaderInitialHeaders, int)} skipped
+     * a malformed forwarded header value
+     */
+    public boolean hasMalformedForwardedHeader() {
+        return this.malformedForwardedHeader;
+    }
+
+
     // build methods
 
     /**
@@ -633,15 +647,15 @@ public class UriComponentsBuilder {
      */
     public UriComponentsBuilder query(/*@Nullable*/ String query) {
         if (query != null) {
-            Matcher matcher = QUERY_PARAM_PATTERN.matcher(query);
-            while (matcher.find()) {
-                String name = matcher.group(QUERY_PARAM_PATTERN_NAME_INDEX);
-                String eq = matcher.group(QUERY_PARAM_PATTERN_EQ_INDEX);
-                String value = matcher.group(QUERY_PARAM_PATTERN_VALUE_INDEX);
-                if (value == null) {
-                    value = isNotBlank(eq) ? "" : null;
+            int length = query.length();
+            int paramStart = 0;
+            while (paramStart < length) {
+                int paramEnd = query.indexOf('&', paramStart);
+                if (paramEnd == -1) {
+                    paramEnd = length;
                 }
-                queryParam(name, value);
+                addQueryParam(query, paramStart, paramEnd);
+                paramStart = paramEnd + 1;
             }
         } else {
             this.queryParams.clear();
@@ -650,6 +664,26 @@ public class UriComponentsBuilder {
         return this;
     }
 
+    /**
+     * Add the query parameter "name[=[value]]" between the given indexes. Leading '=' are skipped and the value
+     * extends up to the end, e.g. "==a=b=c" is name "a" and value "b=c". Without '=' the value is {@code null}.
+     */
+    private void addQueryParam(String query, int start, int end) {
+        int nameStart = start;
+        while (nameStart < end && query.charAt(nameStart) == '=') {
+            nameStart++;
+        }
+        if (nameStart == end) {
+            return;
+        }
+        int nameEnd = nameStart;
+        while (nameEnd < end && query.charAt(nameEnd) != '=') {
+            nameEnd++;
+        }
+        String value = nameEnd < end ? query.substring(nameEnd + 1, end) : null;
+        queryParam(query.substring(nameStart, nameEnd), value);
+    }
+
     /**
      * Set the query of this builder overriding all existing query parameters.
      *
@@ -774,7 +808,7 @@ public class UriComponentsBuilder {
             adaptXForwardedPort(headers);
         }
 
-        if (isHttp() || isHttps()) {
+        if (OriginRules.isForwardedDefaultPort(this.scheme, this.port)) {
             this.port = null;
         }
 
@@ -782,24 +816,27 @@ public class UriComponentsBuilder {
     }
 
     private void adaptForwardedHeader(String forwardedHeader) {
-        String forwardedToUse = getFirstValueToken(forwardedHeader, ",");
-
-        Matcher matcher = FORWARDED_PROTO_PATTERN.matcher(forwardedToUse);
-        if (matcher.find()) {
-            scheme(matcher.group(1).trim());
+        ForwardedElement forwardedElement = ForwardedElement.parseFirst(forwardedHeader);
+        String proto = forwardedElement.getProto();
+        if (proto != null) {
+            scheme(proto);
             port(null);
         }
-        matcher = FORWARDED_HOST_PATTERN.matcher(forwardedToUse);
-        if (matcher.find()) {
-            adaptForwardedHost(matcher.group(1).trim());
+        String forwardedHost = forwardedElement.getHost();
+        if (forwardedHost != null) {
+            adaptForwardedHost(forwardedHost);
         }
     }
 
     private void adaptForwardedHost(String hostToUse) {
         int portSeparatorIdx = hostToUse.lastIndexOf(':');
         if (portSeparatorIdx > hostToUse.lastIndexOf(']')) {
+            int portToUse = parseForwardedPort(hostToUse, portSeparatorIdx + 1);
+            if (portToUse == INVALID_PORT) {
+                return;
+            }
             host(hostToUse.substring(0, portSeparatorIdx));
-            port(Integer.parseInt(hostToUse.substring(portSeparatorIdx + 1)));
+            port(portToUse);
         } else {
             host(hostToUse);
             port(null);
@@ -817,23 +854,56 @@ public class UriComponentsBuilder {
     private void adaptXForwardedPort(HttpHeaders headers) {
         String portHeader = headers.getFirst(X_FORWARDED_PORT.headerName());
         if (isNotBlank(portHeader)) {
-            port(Integer.parseInt(getFirstValueToken(portHeader, ",")));
+            int portToUse = parseForwardedPort(getFirstValueToken(portHeader, ","), 0);
+            if (portToUse != INVALID_PORT) {
+                port(portToUse);
+            }
         }
     }
 
-    private void adaptXForwardedHost(HttpHeaders headers) {
-        String hostHeader = headers.getFirst(X_FORWARDED_HOST.headerName());
-        if (isNotBlank(hostHeader)) {
-            adaptForwardedHost(getFirstValueToken(hostHeader, ","));
+    /**
+     * @return the port or, in lenient mode, {@link #INVALID_PORT} if the value is malformed
+     * @throws NumberFormatException if not in lenient mode and the value is not an integer
+     */
+    private int parseForwardedPort(String value, int start) {
+        int result = parsePort(value, start, value.length());
+        if (result != INVALID_PORT) {
+            return result;
         }
+        if (this.lenientForwardedHeaders) {
+            this.malformedForwardedHeader = true;
+            return INVALID_PORT;
+        }
+        // as before: accepts any integer, or throws
+        return Integer.parseInt(value.substring(start));
     }
 
-    private boolean isHttp() {
-        return scheme != null && "http".equals(scheme) && "80".equals(this.port);
+    /**
+     * Parse 1 to 5 ASCII digits in place, without allocating and without exceptions.
+     *
+     * @return the port or {@link #INVALID_PORT} if the characters are not a number between 0 and 65535
+     */
+    @SuppressWarnings("squid:S109")//"magic number" max. digits of a port
+    private static int parsePort(String value, int start, int end) {
+        if (start >= end || end - start > 5) {
+            return INVALID_PORT;
+        }
+        int result = 0;
+        for (int i = start; i < end; i++) {
+            char ch = value.charAt(i);
+            if (ch < '0' || ch > '9') {
+                return INVALID_PORT;
+            }
+            result = result * 10 + (ch - '0');
+        }
+        return result <= MAX_PORT ? result : INVALID_PORT;
     }
 
-    private boolean isHttps() {
-        return scheme != null && "https".equals(scheme) && "443".equals(this.port);
+    private void adaptXForwardedHost(HttpHeaders headers) {
+        String hostHeader = headers.getFirst(X_FORWARDED_HOST.headerName());
+        if (isNotBlank(hostHeader)) {
+            adaptForwardedHost(getFirstValueToken(hostHeader, ","));
+        }
     }
 
 
@@ -0,0 +1,366 @@
+/*
+ * Copyright 2002-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.qaware.xff.util.uri;
+
+/**
+ * Components of a URI reference as split by a linear scan, see
+ * <a href="https://tools.ietf.org/html/rfc3986#appendix-B">RFC 3986, appendix B</a>.
+ * <p>The components are not validated, only split. Components that are not present are {@code null},
+ * present but empty components are {@code ""}. Supported beyond RFC 3986: IPv6 literals with zone id
+ * (e.g. "[fe80::1%eth0]") and a URI template variable in the port (e.g. "{port}").
+ * <p>Ambiguous input (e.g. a '#' inside a port variable) is split the same way as the regular expression
+ * previously used by {@link UriComponentsBuilder}: alternatives are tried in the same order, but whether
+ * the remainder can be split is answered from a cached delimiter position, so the scan stays linear.
+ */
+final class UriReference {
+
+	/*@Nullable*/
+	private final String scheme;
+
+	/*@Nullable*/
+	private final String userInfo;
+
+	/*@Nullable*/
+	private final String host;
+
+	/*@Nullable*/
+	private final String port;
+
+	private final String path;
+
+	/*@Nullable*/
+	private final String query;
+
+	/*@Nullable*/
+	private final String fragment;
+
+	private UriReference(/*@Nullable*/ String scheme, /*@Nullable*/ String userInfo, /*@Nullable*/ String host,
+	                     /*@Nullable*/ String port, String path, /*@Nullable*/ String query, /*@Nullable*/ String fragment) {
+		this.scheme = scheme;
+		this.userInfo = userInfo;
+		this.host = host;
+		this.port = port;
+		this.path = path;
+		this.query = query;
+		this.fragment = fragment;
+	}
+
+	/**
+	 * Split a URI reference: [scheme:][//[userInfo@]host[:port]]path[?query][#fragment]
+	 *
+	 * @param uri the URI reference
+	 * @return the components or {@code null} if the fragment contains a line terminator
+	 */
+	/*@Nullable*/
+	static UriReference parse(String uri) {
+		Remainder remainder = new Remainder(uri, false);
+		int schemeEnd = scanSchemeEnd(uri);
+		if (schemeEnd != -1) {
+			UriReference reference = parseHierarchicalPart(uri, uri.substring(0, schemeEnd), schemeEnd + 1, remainder);
+			if (reference != null) {
+				return reference;
+			}
+		}
+		return parseHierarchicalPart(uri, null, 0, remainder);
+	}
+
+	/**
+	 * Split an HTTP URL: http[s]:[//[userInfo@]host[:port]]path[?query]. The query includes a fragment, if any.
+	 *
+	 * @param httpUrl the URL
+	 * @return the components or {@code null} if not an HTTP URL (scheme is not http or https, ignoring case),
+	 * it contains a fragment without a query or the query contains a line terminator
+	 */
+	/*@Nullable*/
+	static UriReference parseHttpUrl(String httpUrl) {
+		int schemeEnd;
+		if (startsWithIgnoreAsciiCase(httpUrl, "https:")) {
+			schemeEnd = 5;
+		} else if (startsWithIgnoreAsciiCase(httpUrl, "http:")) {
+			schemeEnd = 4;
+		} else {
+			return null;
+		}
+		return parseHierarchicalPart(httpUrl, httpUrl.substring(0, schemeEnd), schemeEnd + 1, new Remainder(httpUrl, true));
+	}
+
+	/**
+	 * "[//[userInfo@]host[:port]]path..." starting at the given index.
+	 */
+	/*@Nullable*/
+	private static UriReference parseHierarchicalPart(String uri, /*@Nullable*/ String scheme, int from, Remainder remainder) {
+		if (uri.startsWith("//", from)) {
+			int authorityStart = from + 2;
+			int userInfoEnd = authorityStart;
+			while (userInfoEnd < uri.length() && "@[/?#".indexOf(uri.charAt(userInfoEnd)) == -1) {
+				userInfoEnd++;
+			}
+			UriReference reference;
+			if (userInfoEnd < uri.length() && uri.charAt(userInfoEnd) == '@') {
+				String userInfo = uri.substring(authorityStart, userInfoEnd);
+				reference = parseHost(uri, scheme, userInfo, userInfoEnd + 1, remainder);
+				if (reference != null) {
+					return reference;
+				}
+			}
+			reference = parseHost(uri, scheme, null, authorityStart, remainder);
+			if (reference != null) {
+				return reference;
+			}
+		}
+		return remainder.split(scheme, null, null, null, from);
+	}
+
+	/*@Nullable*/
+	private static UriReference parseHost(String uri, /*@Nullable*/ String scheme, /*@Nullable*/ String userInfo,
+	                                      int hostStart, Remainder remainder) {
+		int ipv6End = scanIpv6End(uri, hostStart);
+		if (ipv6End != -1) {
+			UriReference reference = parsePort(uri, scheme, userInfo, hostStart, ipv6End, remainder);
+			if (reference != null) {
+				return reference;
+			}
+		}
+		int hostEnd = hostStart;
+		while (hostEnd < uri.length() && "[/?#:".indexOf(uri.charAt(hostEnd)) == -1) {
+			hostEnd++;
+		}
+		return parsePort(uri, scheme, userInfo, hostStart, hostEnd, remainder);
+	}
+
+	/**
+	 * Tries, in this order, a port with template variable (shortest first), a port with digits only and no port.
+	 */
+	/*@Nullable*/
+	private static UriReference parsePort(String uri, /*@Nullable*/ String scheme, /*@Nullable*/ String userInfo,
+	                                      int hostStart, int hostEnd, Remainder remainder) {
+		int length = uri.length();
+		if (hostEnd < length && uri.charAt(hostEnd) == ':') {
+			int portStart = hostEnd + 1;
+			int digitsEnd = portStart;
+			while (digitsEnd < length && isDigit(uri.charAt(digitsEnd))) {
+				digitsEnd++;
+			}
+			if (digitsEnd < length && uri.charAt(digitsEnd) == '{') {
+				for (int i = digitsEnd + 1; i < length && uri.charAt(i) != '/'; i++) {
+					if (uri.charAt(i) == '}' && i >= digitsEnd + 2 && remainder.canSplit(i + 1)) {
+						return remainder.split(scheme, userInfo, uri.substring(hostStart, hostEnd),
+								uri.substring(portStart, i + 1), i + 1);
+					}
+				}
+			}
+			if (remainder.canSplit(digitsEnd)) {
+				return remainder.split(scheme, userInfo, uri.substring(hostStart, hostEnd),
+						uri.substring(portStart, digitsEnd), digitsEnd);
+			}
+		}
+		if (remainder.canSplit(hostEnd)) {
+			return remainder.split(scheme, userInfo, uri.substring(hostStart, hostEnd), null, hostEnd);
+		}
+		return null;
+	}
+
+	/**
+	 * @return index of the ':' ending a non empty scheme, -1 if there is no scheme
+	 */
+	private static int scanSchemeEnd(String uri) {
+		for (int i = 0; i < uri.length(); i++) {
+			char c = uri.charAt(i);
+			if (c == ':') {
+				return i > 0 ? i : -1;
+			}
+			if (c == '/' || c == '?' || c == '#') {
+				return -1;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * "[" hex digits, ':' and '.' followed by alphanumerics and '%' (zone id) "]"
+	 *
+	 * @return index after ']', -1 if not an IPv6 literal
+	 */
+	private static int scanIpv6End(String uri, int from) {
+		int length = uri.length();
+		if (from >= length || uri.charAt(from) != '[') {
+			return -1;
+		}
+		int i = from + 1;
+		while (i < length && (isHexDigit(uri.charAt(i)) || uri.charAt(i) == ':' || uri.charAt(i) == '.')) {
+			i++;
+		}
+		while (i < length && (isAlnum(uri.charAt(i)) || uri.charAt(i) == '%')) {
+			i++;
+		}
+		return (i < length && uri.charAt(i) == ']') ? i + 1 : -1;
+	}
+
+	private static int indexOfAny(String source, int from, char c1, char c2) {
+		int i = from;
+		while (i < source.length()) {
+			char c = source.charAt(i);
+			if (c == c1 || c == c2) {
+				break;
+			}
+			i++;
+		}
+		return i;
+	}
+
+	/**
+	 * Line terminators as excluded by "." in a {@link java.util.regex.Pattern} without DOTALL.
+	 */
+	private static boolean isLineTerminator(char c) {
+		return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+	}
+
+	private static boolean startsWithIgnoreAsciiCase(String source, String lowerCasePrefix) {
+		if (source.length() < lowerCasePrefix.length()) {
+			return false;
+		}
+		for (int i = 0; i < lowerCasePrefix.length(); i++) {
+			char c = source.charAt(i);
+			if (c >= 'A' && c <= 'Z') {
+				c = (char) (c + ('a' - 'A'));
+			}
+			if (c != lowerCasePrefix.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean isDigit(char c) {
+		return c >= '0' && c <= '9';
+	}
+
+	private static boolean isAlnum(char c) {
+		return isDigit(c) || (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+	}
+
+	private static boolean isHexDigit(char c) {
+		return isDigit(c) || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F');
+	}
+
+	/*@Nullable*/
+	String getScheme() {
+		return scheme;
+	}
+
+	/*@Nullable*/
+	String getUserInfo() {
+		return userInfo;
+	}
+
+	/*@Nullable*/
+	String getHost() {
+		return host;
+	}
+
+	/*@Nullable*/
+	String getPort() {
+		return port;
+	}
+
+	String getPath() {
+		return path;
+	}
+
+	/*@Nullable*/
+	String getQuery() {
+		return query;
+	}
+
+	/*@Nullable*/
+	String getFragment() {
+		return fragment;
+	}
+
+	/**
+	 * "path[?query][#fragment]" (or "path[?query]" for HTTP URLs, the query including the fragment) after the authority.
+	 * <p>Whether the remainder starting at some index can be split only depends on the first delimiter
+	 * ('#' for URIs, '?' or '#' for HTTP URLs) at or after that index. It is cached, so probing increasing
+	 * indexes, e.g. for each possible end of a port variable, scans every character only once.
+	 */
+	private static final class Remainder {
+		private final String uri;
+		private final boolean httpUrl;
+		private final int lastLineTerminator;
+		private int cachedFrom = -1;
+		private int cachedDelimiter = -1;
+
+		private Remainder(String uri, boolean httpUrl) {
+			this.uri = uri;
+			this.httpUrl = httpUrl;
+			int i = uri.length() - 1;
+			while (i >= 0 && !isLineTerminator(uri.charAt(i))) {
+				i--;
+			}
+			this.lastLineTerminator = i;
+		}
+
+		private boolean canSplit(int from) {
+			int delimiter = delimiterAtOrAfter(from);
+			if (delimiter == uri.length()) {
+				return true;
+			}
+			if (httpUrl && uri.charAt(delimiter) == '#') {
+				return false;
+			}
+			// the fragment (query for HTTP URLs) is matched by "." which does not match line terminators
+			return lastLineTerminator < delimiter;
+		}
+
+		private int delimiterAtOrAfter(int from) {
+			if (cachedFrom == -1 || from < cachedFrom || from > cachedDelimiter) {
+				int i = from;
+				while (i < uri.length() && uri.charAt(i) != '#' && !(httpUrl && uri.charAt(i) == '?')) {
+					i++;
+				}
+				cachedFrom = from;
+				cachedDelimiter = i;
+			}
+			return cachedDelimiter;
+		}
+
+		/*@Nullable*/
+		private UriReference split(/*@Nullable*/ String scheme, /*@Nullable*/ String userInfo, /*@Nullable*/ String host,
+		                           /*@Nullable*/ String port, int pathStart) {
+			if (!canSplit(pathStart)) {
+				return null;
+			}
+			int length = uri.length();
+			int pathEnd = indexOfAny(uri, pathStart, '?', '#');
+			String path = uri.substring(pathStart, pathEnd);
+			if (httpUrl) {
+				String query = pathEnd < length ? uri.substring(pathEnd + 1) : null;
+				return new UriReference(scheme, userInfo, host, port, path, query, null);
+			}
+			String query = null;
+			int pos = pathEnd;
+			if (pos < length && uri.charAt(pos) == '?') {
+				pos = uri.indexOf('#', pos + 1);
+				if (pos == -1) {
+					pos = length;
+				}
+				query = uri.substring(pathEnd + 1, pos);
+			}
+			String fragment = pos < length ? uri.substring(pos + 1) : null;
+			return new UriReference(scheme, userInfo, host, port, path, query, fragment);
+		}
+	}
+}
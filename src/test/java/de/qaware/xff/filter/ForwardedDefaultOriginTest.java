@@ -0,0 +1,116 @@
+/*
+ * Copyright 2002-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.qaware.xff.filter;
+
+import de.qaware.xff.util.uri.UriComponentsBuilder;
+import org.junit.Test;
+import org.springframework.mock.web.MockFilterConfig;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+import java.util.Collections;
+
+import static de.qaware.xff.util.ForwardedHeader.*;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Unit tests for {@link ForwardedDefaultOrigin}.
+ */
+public class ForwardedDefaultOriginTest {
+
+    private static final String[][] DEFAULTS = {
+            // Forwarded, X-Forwarded-Proto, X-Forwarded-Host, X-Forwarded-Port
+            {null, null, null, null},
+            {null, "https", null, null},
+            {null, null, "example.com", null},
+            {null, null, "example.com:8443", null},
+            {null, null, "[::1]:9000", null},
+            {null, null, null, "8080"},
+            {null, null, null, "80"},
+            {null, "https, http", "example.com,other", "443"},
+            {null, "http", "example.com", "80"},
+            {"proto=https;host=example.com", null, "ignored", "1234"},
+            {"host=\"example.com:8000\"", null, null, null},
+            {"for=192.0.2.1", "https", null, null},
+            {" ", "https", null, null},
+    };
+
+    private static final Object[][] REQUESTS = {
+            // scheme, serverName, serverPort
+            {"http", "localhost", 80},
+            {"http", "localhost", 8080},
+            {"https", "localhost", 443},
+            {"https", "server", 80},
+            {"http", "::1", -1},
+    };
+
+    @Test
+    public void sameOriginAsFullParse() {
+        for (String[] defaults : DEFAULTS) {
+            ForwardedHeaderInitialHeaders initialOptions = initialOptions(defaults);
+            for (Object[] values : REQUESTS) {
+                MockHttpServletRequest request = new MockHttpServletRequest();
+                request.setScheme((String) values[0]);
+                request.setServerName((String) values[1]);
+                request.setServerPort((Integer) values[2]);
+                request.setRequestURI("/path");
+
+                ForwardedOrigin expected = ForwardedOrigin.of(UriComponentsBuilder.fromHttpRequest(request, initialOptions).build());
+                ForwardedOrigin actual = initialOptions.getDefaultOrigin().resolve(request);
+                assertEquals(String.join("|", String.valueOf(defaults[0]), defaults[1], defaults[2], defaults[3]) + " " + request.getRequestURL(),
+                        expected, actual);
+                assertEquals(expected.getPort(), actual.getPort());
+            }
+        }
+    }
+
+    @Test
+    public void constantOriginIsShared() {
+        ForwardedHeaderInitialHeaders initialOptions = initialOptions(new String[]{null, "https", "example.com", null});
+        ForwardedDefaultOrigin defaultOrigin = initialOptions.getDefaultOrigin();
+        ForwardedOrigin first = defaultOrigin.resolve(new MockHttpServletRequest());
+        assertEquals("https://example.com", first.toString());
+        assertSame(first, defaultOrigin.resolve(new MockHttpServletRequest("GET", "/other")));
+    }
+
+    @Test
+    public void defaultPrefixIsTrimmed() {
+        MockFilterConfig config = new MockFilterConfig();
+        config.addInitParameter(X_FORWARDED_PREFIX.headerName().toLowerCase(), "/prefix//,/other");
+        assertEquals("/prefix", new ForwardedHeaderInitialHeaders(config).getDefaultPrefix());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidDefaultPort() {
+        ForwardedDefaultOrigin.of(Collections.singletonMap(X_FORWARDED_PORT.headerName(), "notANumber"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidDefaultHostPort() {
+        ForwardedDefaultOrigin.of(Collections.singletonMap(X_FORWARDED_HOST.headerName(), "example.com:-5"));
+    }
+
+    private static ForwardedHeaderInitialHeaders initialOptions(String[] defaults) {
+        MockFilterConfig config = new MockFilterConfig();
+        String[] names = {FORWARDED.headerName(), X_FORWARDED_PROTO.headerName(), X_FORWARDED_HOST.headerName(), X_FORWARDED_PORT.headerName()};
+        for (int i = 0; i < names.length; i++) {
+            if (defaults[i] != null) {
+                config.addInitParameter(names[i], defaults[i]);
+            }
+        }
+        return new ForwardedHeaderInitialHeaders(config);
+    }
+}
@@ -15,6 +15,7 @@
  */
 package de.qaware.xff.filter;
 
+import org.apache.commons.lang3.StringUtils;
 import org.junit.Before;
 import org.junit.Test;
 import org.springframework.mock.web.MockFilterChain;
@@ -27,8 +28,10 @@ import javax.servlet.FilterChain;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashMap;
@@ -64,14 +67,19 @@ public class ForwardedHeaderFilterTest {
     private void setupWithParams(Map<String, String> params) throws ServletException {
         this.filter = new ForwardedHeaderFilter();
         initFilter(UNIT_TEST_FORWARDED_FILTER, params);
-        this.request = new MockHttpServletRequest();
-        this.request.setScheme("http");
-        this.request.setServerName("localhost");
-        this.request.setServerPort(80);
+        this.request = createRequest();
         this.filterChain = new MockFilterChain(new HttpServlet() {
         });
     }
 
+    private static MockHttpServletRequest createRequest() {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setScheme("http");
+        request.setServerName("localhost");
+        request.setServerPort(80);
+        return request;
+    }
+
 
     private ForwardedHeaderFilter initFilter(String filterName, Map<String, String> params) throws ServletException {
         MockFilterConfig config = new MockFilterConfig(filterName);
@@ -286,6 +294,55 @@ public class ForwardedHeaderFilterTest {
         assertHeadersAREremovedFromRequest(actual);
     }
 
+    @Test
+    public void headerNamesAreScannedOnce() throws Exception {
+        final int[] scans = {0};
+        MockHttpServletRequest countingRequest = new MockHttpServletRequest() {
+            @Override
+            public Enumeration<String> getHeaderNames() {
+                scans[0]++;
+                return super.getHeaderNames();
+            }
+        };
+        countingRequest.addHeader(X_FORWARDED_HOST.headerName(), "example.com");
+        countingRequest.addHeader("notToBeRemoved", "notToBeRemoved");
+
+        this.filter.doFilter(countingRequest, new MockHttpServletResponse(), this.filterChain);
+        HttpServletRequest actual = (HttpServletRequest) this.filterChain.getRequest();
+        assertEquals("example.com", actual.getServerName());
+        assertNull(actual.getHeader(X_FORWARDED_HOST.headerName()));
+        assertEquals(1, scans[0]);
+    }
+
+    @Test
+    public void noRemovingWrapperWithoutForwardedHeaders() throws Exception {
+        this.setupWithParams(Collections.singletonMap(X_FORWARDED_HOST.headerName(), "default-host"));
+        this.request.addHeader("notToBeRemoved", "notToBeRemoved");
+
+        this.filter.doFilter(this.request, new MockHttpServletResponse(), this.filterChain);
+        HttpServletRequest actual = (HttpServletRequest) this.filterChain.getRequest();
+        assertTrue(actual instanceof ForwardedHeaderExtractingRequest);
+        assertEquals("default-host", actual.getServerName());
+    }
+
+    @Test
+    public void removedHeadersAreHiddenFromAllAccessors() throws Exception {
+        this.request.addHeader(X_FORWARDED_HOST.headerName(), "84.198.58.199");
+        this.request.addHeader(X_FORWARDED_PORT.headerName(), "443");
+        this.request.addHeader("notToBeRemoved", "a");
+        this.request.addHeader("notToBeRemoved", "b");
+        this.request.addHeader("Max-Forwards", "10");
+
+        this.filter.doFilter(this.request, new MockHttpServletResponse(), this.filterChain);
+        HttpServletRequest actual = (HttpServletRequest) this.filterChain.getRequest();
+
+        assertFalse(actual.getHeaders(X_FORWARDED_HOST.headerName()).hasMoreElements());
+        assertEquals(-1, actual.getIntHeader(X_FORWARDED_PORT.headerName().toUpperCase()));
+        assertEquals(10, actual.getIntHeader("Max-Forwards"));
+        assertEquals(Arrays.asList("a", "b"), Collections.list(actual.getHeaders("notToBeRemoved")));
+        assertEquals(Arrays.asList("notToBeRemoved", "Max-Forwards"), Collections.list(actual.getHeaderNames()));
+    }
+
     @Test
     public void xForwardedRequestWithMultipleHeaders() throws Exception {
         this.request.setRequestURI("/mvc-showcase");
@@ -560,6 +617,22 @@ public class ForwardedHeaderFilterTest {
         assertEquals("http://localhost/prefix/mvc-showcase", actual.getRequestURL().toString());
     }
 
+    @Test(timeout = 2000)
+    public void hugeForwardedHeadersAreProcessedInLinearTime() throws Exception {
+        int n = 100_000;
+        this.request.addHeader(X_FORWARDED_PREFIX.headerName(), "/prefix" + StringUtils.repeat('/', n));
+        this.request.addHeader(X_FORWARDED_HOST.headerName(), "[" + StringUtils.repeat(':', n));
+        this.request.addHeader(FORWARDED.headerName(), "for=\"" + StringUtils.repeat("\\\",", n) + "\";proto=https");
+        this.request.setRequestURI("/mvc-showcase");
+
+        HttpServletRequest actual = filterAndGetWrappedRequest();
+        assertEquals("/prefix/mvc-showcase", actual.getRequestURI());
+        assertEquals("https", actual.getScheme());
+
+        String location = "http://h:{" + StringUtils.repeat("{#", n) + "\n";
+        assertEquals(location, sendRedirect(location));
+    }
+
     @Test
     public void sendRedirectWithAbsolutePath() throws Exception {
         this.request.addHeader(X_FORWARDED_PROTO.headerName(), "https");
@@ -704,6 +777,533 @@ public class ForwardedHeaderFilterTest {
         assertEquals("https://example.com/foo/bar?newqp=2#fragment", redirectedUrl);
     }
 
+    @Test
+    public void sendRedirectFastPathMatchesUriComponents() throws Exception {
+        this.request.addHeader(X_FORWARDED_PROTO.headerName(), "https");
+        this.request.addHeader(X_FORWARDED_HOST.headerName(), "example.com:8443");
+        this.request.setRequestURI("/app/dir/page");
+        String[] locations = {"/foo/bar", "foo/bar", "../foo/./bar", "/a/b/../../c?x=1&y=2#frag", "?q=1", "",
+                "./", "/a\\b", "/foo?", "/foo/..", "..", "/a:b/c", "x/y/../../../z"};
+        for (String location : locations) {
+            HttpServletRequest wrapped = filterAndGetWrappedRequest();
+            String expected = expectedRedirect(new HttpServletRequestWrapper(wrapped), location);
+            MockHttpServletResponse response = new MockHttpServletResponse();
+            new ForwardedHeaderExtractingResponse(response, wrapped).sendRedirect(location);
+            assertEquals(location, expected, response.getRedirectedUrl());
+            this.filterChain = new MockFilterChain(new HttpServlet() {
+            });
+        }
+    }
+
+    private static String expectedRedirect(HttpServletRequest request, String location) throws IOException {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        new ForwardedHeaderExtractingResponse(response, request).sendRedirect(location);
+        return response.getRedirectedUrl();
+    }
+
+    @Test
+    public void redirectCache() throws Exception {
+        this.setupWithParams(Collections.singletonMap(REDIRECT_CACHE_SIZE, "16"));
+        this.request.addHeader(X_FORWARDED_PROTO.headerName(), "https");
+        this.request.addHeader(X_FORWARDED_HOST.headerName(), "example.com");
+        this.request.setRequestURI("/app/page");
+
+        assertEquals("https://example.com/login", sendRedirect("/login"));
+        assertEquals("https://example.com/login", sendRedirect("/login"));
+        assertEquals("https://example.com/app/home", sendRedirect("home"));
+        assertEquals(1, this.filter.getRedirectCacheHitCount());
+        assertEquals(2, this.filter.getRedirectCacheMissCount());
+
+        // same relative location from another directory
+        this.request.setRequestURI("/other/page");
+        assertEquals("https://example.com/other/home", sendRedirect("home"));
+        assertEquals("https://example.com/login", sendRedirect("/login"));
+        assertEquals(2, this.filter.getRedirectCacheHitCount());
+        assertEquals(3, this.filter.getRedirectCacheMissCount());
+
+        // other origin
+        this.request = createRequest();
+        this.request.addHeader(X_FORWARDED_PROTO.headerName(), "https");
+        this.request.addHeader(X_FORWARDED_HOST.headerName(), "other.com");
+        this.request.setRequestURI("/other/page");
+        assertEquals("https://other.com/login", sendRedirect("/login"));
+        assertEquals(4, this.filter.getRedirectCacheMissCount());
+
+        // query strings are not cached by default
+        assertEquals("https://other.com/login?x=1", sendRedirect("/login?x=1"));
+        assertEquals("https://other.com/login?x=1", sendRedirect("/login?x=1"));
+        assertEquals(2, this.filter.getRedirectCacheHitCount());
+        assertEquals(4, this.filter.getRedirectCacheMissCount());
+    }
+
+    @Test
+    public void sendRedirectCollapsesDuplicateSlashes() throws Exception {
+        this.request.addHeader(X_FORWARDED_PROTO.headerName(), "https");
+        this.request.addHeader(X_FORWARDED_HOST.headerName(), "pub.example");
+        this.request.setRequestURI("/app/x/page");
+
+        assertEquals("https://pub.example/a/b", sendRedirect("/a//b"));
+        assertEquals("https://pub.example/app/b/c", sendRedirect("../b//c"));
+    }
+
+    @Test
+    public void sendRedirectKeepsQueryVerbatim() throws Exception {
+        this.request.addHeader(X_FORWARDED_PROTO.headerName(), "https");
+        this.request.addHeader(X_FORWARDED_HOST.headerName(), "pub.example");
+
+        assertEquals("https://pub.example/a?x=1&&y", sendRedirect("/a?x=1&&y"));
+    }
+
+    @Test
+    public void redirectCacheIncludingQuery() throws Exception {
+        Map<String, String> params = new HashMap<>();
+        params.put(REDIRECT_CACHE_SIZE, "16");
+        params.put(REDIRECT_CACHE_INCLUDE_QUERY, "true");
+        this.setupWithParams(params);
+        this.request.addHeader(X_FORWARDED_HOST.headerName(), "example.com");
+
+        assertEquals("http://example.com/login?x=1#top", sendRedirect("/login?x=1#top"));
+        assertEquals("http://example.com/login?x=1#top", sendRedirect("/login?x=1#top"));
+        assertEquals(1, this.filter.getRedirectCacheHitCount());
+        assertEquals(1, this.filter.getRedirectCacheMissCount());
+    }
+
+    @Test
+    public void redirectCacheDisabledByDefault() throws Exception {
+        this.request.addHeader(X_FORWARDED_HOST.headerName(), "example.com");
+        assertEquals("http://example.com/login", sendRedirect("/login"));
+        assertEquals(0, this.filter.getRedirectCacheHitCount());
+        assertEquals(0, this.filter.getRedirectCacheMissCount());
+    }
+
+    @Test
+    public void forwardedHeadersAreEvaluatedLazily() throws Exception {
+        this.request.addHeader(X_FORWARDED_HOST.headerName(), "example.com");
+        this.request.addHeader(X_FORWARDED_PORT.headerName(), "notANumber");
+        this.request.setRequestURI("/mvc-showcase");
+
+        HttpServletRequest actual = filterAndGetWrappedRequest();
+        assertEquals("/mvc-showcase", actual.getRequestURI());
+        try {
+            actual.getServerName();
+            fail("malformed X-Forwarded-Port must be detected on first access");
+        } catch (NumberFormatException ex) {
+            // expected
+        }
+    }
+
+    @Test
+    public void originCache() throws Exception {
+        setupWithParams(Collections.singletonMap(ORIGIN_CACHE_SIZE, "16"));
+        this.request.addHeader(X_FORWARDED_PROTO.headerName(), "https");
+        this.request.addHeader(X_FORWARDED_HOST.headerName(), "example.com");
+
+        for (int i = 0; i < 3; i++) {
+            this.filterChain = new MockFilterChain(new HttpServlet() {
+            });
+            HttpServletRequest actual = filterAndGetWrappedRequest();
+            assertEquals("https", actual.getScheme());
+            assertEquals("example.com", actual.getServerName());
+            assertEquals(443, actual.getServerPort());
+        }
+        assertEquals(1, filter.getOriginCacheMissCount());
+        assertEquals(2, filter.getOriginCacheHitCount());
+
+        this.request = createRequest();
+        this.request.setServerName("otherhost");
+        this.request.addHeader(X_FORWARDED_PROTO.headerName(), "https");
+        this.filterChain = new MockFilterChain(new HttpServlet() {
+        });
+        assertEquals("otherhost", filterAndGetWrappedRequest().getServerName());
+        assertEquals(2, filter.getOriginCacheMissCount());
+    }
+
+    @Test
+    public void originCacheDisabledByDefault() throws Exception {
+        this.request.addHeader(X_FORWARDED_HOST.headerName(), "example.com");
+        assertEquals("example.com", filterAndGetWrappedRequest().getServerName());
+        assertEquals(0, filter.getOriginCacheMissCount());
+        assertEquals(0, filter.getOriginCacheHitCount());
+    }
+
+    @Test
+    public void trustedProxy() throws Exception {
+        setupWithParams(Collections.singletonMap(TRUSTED_PROXIES, "10.0.0.0/8, 2001:db8::/32"));
+        this.request.setRemoteAddr("10.1.2.3");
+        this.request.addHeader(X_FORWARDED_PROTO.headerName(), "https");
+        this.request.addHeader(X_FORWARDED_HOST.headerName(), "example.com");
+
+        HttpServletRequest actual = filterAndGetWrappedRequest();
+        assertEquals("https", actual.getScheme());
+        assertEquals("example.com", actual.getServerName());
+        assertNull(actual.getHeader(X_FORWARDED_HOST.headerName()));
+    }
+
+    @Test
+    public void untrustedProxyHeadersAreIgnoredAndRemoved() throws Exception {
+        setupWithParams(Collections.singletonMap(TRUSTED_PROXIES, "10.0.0.0/8 2001:db8::/32"));
+        this.request.setRemoteAddr("192.0.2.1");
+        this.request.addHeader(X_FORWARDED_PROTO.headerName(), "https");
+        this.request.addHeader(X_FORWARDED_HOST.headerName(), "example.com");
+
+        HttpServletRequest actual = filterAndGetWrappedRequest();
+        assertEquals("http", actual.getScheme());
+        assertEquals("localhost", actual.getServerName());
+        assertNull(actual.getHeader(X_FORWARDED_HOST.headerName()));
+    }
+
+    @Test
+    public void untrustedProxyHeadersAreIgnoredAndKept() throws Exception {
+        Map<String, String> params = new HashMap<>();
+        params.put(TRUSTED_PROXIES, "10.0.0.0/8");
+        params.put(HEADER_PROCESSING_STRATEGY, HeaderProcessingStrategy.EVAL_AND_KEEP.name());
+        setupWithParams(params);
+        this.request.setRemoteAddr("2001:db9::1");
+        this.request.addHeader(X_FORWARDED_HOST.headerName(), "example.com");
+
+        HttpServletRequest actual = filterAndGetWrappedRequest();
+        assertEquals("localhost", actual.getServerName());
+        assertEquals("example.com", actual.getHeader(X_FORWARDED_HOST.headerName()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidTrustedProxies() throws Exception {
+        setupWithParams(Collections.singletonMap(TRUSTED_PROXIES, "10.0.0.0/8, not-a-cidr"));
+    }
+
+    @Test
+    public void headerLimitRejectsLongHeader() throws Exception {
+        Map<String, String> params = new HashMap<>();
+        params.put(MAX_HEADER_LENGTH, "20");
+        params.put(METRICS_CLASS, LongAdderForwardedHeaderMetrics.class.getName());
+        setupWithParams(params);
+        this.request.addHeader(X_FORWARDED_HOST.headerName(), "example.com");
+        this.request.addHeader(X_FORWARDED_HOST.headerName(), "a-rather-long-host");
+
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        this.filter.doFilter(this.request, response, this.filterChain);
+        assertEquals(HttpServletResponse.SC_BAD_REQUEST, response.getStatus());
+        assertNull(this.filterChain.getRequest());
+        assertEquals(1, ((LongAdderForwardedHeaderMetrics) this.filter.getMetrics()).getHeaderLimitExceededCount());
+    }
+
+    @Test
+    public void headerLimitStripsHeadersWithTooManyElements() throws Exception {
+        Map<String, String> params = new HashMap<>();
+        params.put(MAX_HEADER_ELEMENTS, "2");
+        params.put(HEADER_LIMIT_POLICY, HeaderLimitPolicy.STRIP.name());
+        params.put(HEADER_PROCESSING_STRATEGY, HeaderProcessingStrategy.EVAL_AND_KEEP.name());
+        params.put(RESOLVE_REMOTE_ADDRESS, "true");
+        params.put(X_FORWARDED_PROTO.headerName(), "https");
+        setupWithParams(params);
+        this.request.setRemoteAddr("10.0.0.1");
+        this.request.addHeader(X_FORWARDED_FOR.headerName(), "192.0.2.1, 192.0.2.2");
+        this.request.addHeader(X_FORWARDED_FOR.headerName(), "192.0.2.3");
+        this.request.addHeader(X_FORWARDED_HOST.headerName(), "example.com");
+
+        HttpServletRequest actual = filterAndGetWrappedRequest();
+        assertEquals("10.0.0.1", actual.getRemoteAddr());
+        assertEquals("localhost", actual.getServerName());
+        assertEquals("https", actual.getScheme());
+        assertNull(actual.getHeader(X_FORWARDED_HOST.headerName()));
+    }
+
+    @Test
+    public void headerLimitIgnoresHeadersWithLongPrefix() throws Exception {
+        Map<String, String> params = new HashMap<>();
+        params.put(MAX_HEADER_LENGTH, "100");
+        params.put(MAX_PREFIX_LENGTH, "8");
+        params.put(HEADER_LIMIT_POLICY, HeaderLimitPolicy.IGNORE.name());
+        setupWithParams(params);
+        this.request.addHeader(X_FORWARDED_HOST.headerName(), "example.com");
+        this.request.addHeader(X_FORWARDED_PREFIX.headerName(), "/prefix");
+        assertEquals("example.com", filterAndGetWrappedRequest().getServerName());
+
+        this.request = createRequest();
+        this.request.addHeader(X_FORWARDED_HOST.headerName(), "example.com");
+        this.request.addHeader(X_FORWARDED_PREFIX.headerName(), "/longer-prefix");
+        this.filterChain = new MockFilterChain(new HttpServlet() {
+        });
+        HttpServletRequest actual = filterAndGetWrappedRequest();
+        assertEquals("localhost", actual.getServerName());
+        assertNull(actual.getHeader(X_FORWARDED_HOST.headerName()));
+    }
+
+    @Test
+    public void headerLimitDoesNotCountCommasInQuotedStrings() throws Exception {
+        setupWithParams(Collections.singletonMap(MAX_HEADER_ELEMENTS, "2"));
+        this.request.addHeader(FORWARDED.headerName(), "for=\"a,b\\\",c\";proto=https, for=\"d,e\"");
+
+        assertEquals("https", filterAndGetWrappedRequest().getScheme());
+    }
+
+    @Test
+    public void malformedHeaderIgnoreSkipsMalformedValue() throws Exception {
+        Map<String, String> params = new HashMap<>();
+        params.put(MALFORMED_HEADER_POLICY, MalformedHeaderPolicy.IGNORE.name());
+        params.put(METRICS_CLASS, LongAdderForwardedHeaderMetrics.class.getName());
+        setupWithParams(params);
+        this.request.addHeader(X_FORWARDED_PROTO.headerName(), "https");
+        this.request.addHeader(X_FORWARDED_HOST.headerName(), "example.com");
+        this.request.addHeader(X_FORWARDED_PORT.headerName(), "notANumber");
+
+        HttpServletRequest actual = filterAndGetWrappedRequest();
+        assertEquals("https", actual.getScheme());
+        assertEquals("example.com", actual.getServerName());
+        assertEquals(443, actual.getServerPort());
+        assertEquals(1, ((LongAdderForwardedHeaderMetrics) this.filter.getMetrics()).getMalformedHeaderCount());
+        assertEquals(0, ((LongAdderForwardedHeaderMetrics) this.filter.getMetrics()).getParseFailureCount());
+    }
+
+    @Test
+    public void malformedHeaderDefaultsUsesRequestAndDefaults() throws Exception {
+        Map<String, String> params = new HashMap<>();
+        params.put(MALFORMED_HEADER_POLICY, MalformedHeaderPolicy.DEFAULTS.name());
+        params.put(X_FORWARDED_PROTO.headerName(), "https");
+        setupWithParams(params);
+        this.request.addHeader(FORWARDED.headerName(), "host=example.com:123456;proto=http");
+
+        HttpServletRequest actual = filterAndGetWrappedRequest();
+        assertEquals("https", actual.getScheme());
+        assertEquals("localhost", actual.getServerName());
+        assertEquals(443, actual.getServerPort());
+        assertNull(actual.getHeader(FORWARDED.headerName()));
+    }
+
+    @Test
+    public void malformedHeaderRejectRespondsWithBadRequest() throws Exception {
+        setupWithParams(Collections.singletonMap(MALFORMED_HEADER_POLICY, MalformedHeaderPolicy.REJECT.name()));
+        this.request.addHeader(X_FORWARDED_HOST.headerName(), "example.com:8o8o");
+
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        this.filter.doFilter(this.request, response, this.filterChain);
+        assertEquals(HttpServletResponse.SC_BAD_REQUEST, response.getStatus());
+        assertNull(this.filterChain.getRequest());
+
+        this.request = createRequest();
+        this.request.addHeader(X_FORWARDED_HOST.headerName(), "example.com:8080");
+        this.filterChain = new MockFilterChain(new HttpServlet() {
+        });
+        HttpServletRequest actual = filterAndGetWrappedRequest();
+        assertEquals("example.com", actual.getServerName());
+        assertEquals(8080, actual.getServerPort());
+    }
+
+    @Test
+    public void remoteAddressNotResolvedByDefault() throws Exception {
+        this.request.setRemoteAddr("10.0.0.1");
+        this.request.addHeader(X_FORWARDED_FOR.headerName(), "127.0.0.1");
+        assertTrue(this.filter.shouldNotFilter(this.request));
+
+        this.request.addHeader(FORWARDED.headerName(), "for=127.0.0.1;host=example.com");
+        HttpServletRequest actual = filterAndGetWrappedRequest();
+        assertEquals("example.com", actual.getServerName());
+        assertEquals("10.0.0.1", actual.getRemoteAddr());
+        assertNull(actual.getHeader(FORWARDED.headerName()));
+        assertEquals("127.0.0.1", actual.getHeader(X_FORWARDED_FOR.headerName()));
+    }
+
+    @Test
+    public void remoteAddressFromXForwardedFor() throws Exception {
+        setupWithParams(Collections.singletonMap(RESOLVE_REMOTE_ADDRESS, "true"));
+        this.request.setRemoteAddr("10.0.0.1");
+        this.request.setRemoteHost("proxy");
+        this.request.setRemotePort(4711);
+        this.request.addHeader(X_FORWARDED_FOR.headerName(), "127.0.0.1, 192.0.2.1");
+        assertFalse(this.filter.shouldNotFilter(this.request));
+
+        HttpServletRequest actual = filterAndGetWrappedRequest();
+        assertEquals("192.0.2.1", actual.getRemoteAddr());
+        assertEquals("192.0.2.1", actual.getRemoteHost());
+        assertEquals(0, actual.getRemotePort());
+        assertNull(actual.getHeader(X_FORWARDED_FOR.headerName()));
+    }
+
+    @Test
+    public void remoteAddressFromForwardedWithTrustedProxies() throws Exception {
+        Map<String, String> params = new HashMap<>();
+        params.put(TRUSTED_PROXIES, "10.0.0.0/8");
+        params.put(RESOLVE_REMOTE_ADDRESS, "true");
+        setupWithParams(params);
+        this.request.setRemoteAddr("10.0.0.1");
+        this.request.addHeader(FORWARDED.headerName(), "for=192.0.2.1, for=\"[2001:db8::17]:4711\", for=10.0.0.2");
+        this.request.addHeader(X_FORWARDED_FOR.headerName(), "198.51.100.1");
+
+        HttpServletRequest actual = filterAndGetWrappedRequest();
+        assertEquals("2001:db8::17", actual.getRemoteAddr());
+        assertEquals(4711, actual.getRemotePort());
+    }
+
+    @Test
+    public void remoteAddressFromMultipleXForwardedForHeaders() throws Exception {
+        Map<String, String> params = new HashMap<>();
+        params.put(TRUSTED_PROXIES, "10.0.0.0/8");
+        params.put(RESOLVE_REMOTE_ADDRESS, "true");
+        setupWithParams(params);
+        this.request.setRemoteAddr("10.0.0.1");
+        this.request.addHeader(X_FORWARDED_FOR.headerName(), "192.0.2.1, 198.51.100.1");
+        this.request.addHeader(X_FORWARDED_FOR.headerName(), "10.0.0.2");
+
+        assertEquals("198.51.100.1", filterAndGetWrappedRequest().getRemoteAddr());
+    }
+
+    @Test
+    public void remoteAddressIgnoresObfuscatedNode() throws Exception {
+        setupWithParams(Collections.singletonMap(RESOLVE_REMOTE_ADDRESS, "true"));
+        this.request.setRemoteAddr("10.0.0.1");
+        this.request.setRemoteHost("proxy");
+        this.request.addHeader(FORWARDED.headerName(), "for=192.0.2.1, for=_hidden");
+
+        HttpServletRequest actual = filterAndGetWrappedRequest();
+        assertEquals("10.0.0.1", actual.getRemoteAddr());
+        assertEquals("proxy", actual.getRemoteHost());
+    }
+
+    @Test
+    public void remoteAddressWithoutForwardedFor() throws Exception {
+        this.request.setRemoteAddr("10.0.0.1");
+        this.request.setRemoteHost("proxy");
+        this.request.setRemotePort(4711);
+        this.request.addHeader(X_FORWARDED_HOST.headerName(), "example.com");
+
+        HttpServletRequest actual = filterAndGetWrappedRequest();
+        assertEquals("10.0.0.1", actual.getRemoteAddr());
+        assertEquals("proxy", actual.getRemoteHost());
+        assertEquals(4711, actual.getRemotePort());
+    }
+
+    @Test
+    public void staticOrigin() throws Exception {
+        Map<String, String> params = new HashMap<>();
+        params.put(STATIC_ORIGIN, "https://example.com:8443/prefix/");
+        params.put(TRUSTED_PROXIES, "10.0.0.0/8");
+        this.setupWithParams(params);
+        this.request.setRemoteAddr("192.168.1.1");
+        this.request.setRequestURI("/mvc-showcase/path");
+        this.request.setContextPath("/mvc-showcase");
+        this.request.addHeader(X_FORWARDED_HOST.headerName(), "evil.com");
+        this.request.addHeader(X_FORWARDED_FOR.headerName(), "203.0.113.1");
+        this.request.addHeader("notToBeRemoved", "notToBeRemoved");
+
+        this.filter.doFilter(this.request, new MockHttpServletResponse(), this.filterChain);
+        HttpServletRequest actual = (HttpServletRequest) this.filterChain.getRequest();
+        assertEquals("https", actual.getScheme());
+        assertEquals("example.com", actual.getServerName());
+        assertEquals(8443, actual.getServerPort());
+        assertTrue(actual.isSecure());
+        assertEquals("/prefix", actual.getContextPath());
+        assertEquals("https://example.com:8443/prefix/path", actual.getRequestURL().toString());
+        assertEquals("192.168.1.1", actual.getRemoteAddr());
+        assertHeadersAREremovedFromRequest(actual);
+        assertEquals("203.0.113.1", actual.getHeader(X_FORWARDED_FOR.headerName()));
+    }
+
+    @Test
+    public void staticOriginWithoutForwardedHeaders() throws Exception {
+        this.setupWithParams(Collections.singletonMap(STATIC_ORIGIN, "https://example.com"));
+        this.request.setRequestURI("/path");
+        assertFalse(this.filter.shouldNotFilter(this.request));
+
+        assertEquals("https://example.com/path", filterAndGetWrappedRequest().getRequestURL().toString());
+        assertEquals(443, ((HttpServletRequest) this.filterChain.getRequest()).getServerPort());
+    }
+
+    @Test
+    public void staticOriginRedirect() throws Exception {
+        this.setupWithParams(Collections.singletonMap(STATIC_ORIGIN, "https://example.com/prefix"));
+        this.request.addHeader(X_FORWARDED_PROTO.headerName(), "http");
+        this.request.setRequestURI("/foo");
+        assertEquals("https://example.com/prefix/bar", sendRedirect("/prefix/bar"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidStaticOrigin() throws Exception {
+        this.setupWithParams(Collections.singletonMap(STATIC_ORIGIN, "ftp://example.com"));
+    }
+
+    @Test
+    public void metricsCountHeaderSources() throws Exception {
+        LongAdderForwardedHeaderMetrics metrics = new LongAdderForwardedHeaderMetrics();
+        this.filter.setMetrics(metrics);
+
+        assertTrue(this.filter.shouldNotFilter(this.request));
+        assertEquals(1, metrics.getSkippedCount());
+
+        this.request.addHeader(X_FORWARDED_HOST.headerName(), "example.com");
+        assertEquals("example.com", filterAndGetWrappedRequest().getServerName());
+        assertEquals(1, metrics.getXForwardedHeadersCount());
+        assertEquals(0, metrics.getForwardedHeaderCount());
+
+        this.request.addHeader(FORWARDED.headerName(), "host=example.org");
+        this.filterChain = new MockFilterChain(new HttpServlet() {
+        });
+        assertEquals("example.org", filterAndGetWrappedRequest().getServerName());
+        assertEquals(1, metrics.getForwardedHeaderCount());
+        assertEquals(0, metrics.getDefaultsUsedCount());
+        assertEquals(0, metrics.getParseTimedCount());
+    }
+
+    @Test
+    public void metricsCountDefaultsAndUntrustedProxies() throws Exception {
+        Map<String, String> params = new HashMap<>();
+        params.put(X_FORWARDED_HOST.headerName(), "default-host");
+        params.put(TRUSTED_PROXIES, "10.0.0.0/8");
+        params.put(METRICS_CLASS, LongAdderForwardedHeaderMetrics.class.getName());
+        this.setupWithParams(params);
+        LongAdderForwardedHeaderMetrics metrics = (LongAdderForwardedHeaderMetrics) this.filter.getMetrics();
+
+        this.request.setRemoteAddr("10.1.2.3");
+        assertEquals("default-host", filterAndGetWrappedRequest().getServerName());
+        assertEquals(1, metrics.getDefaultsUsedCount());
+
+        this.request.setRemoteAddr("192.168.1.1");
+        this.filterChain = new MockFilterChain(new HttpServlet() {
+        });
+        assertEquals("localhost", filterAndGetWrappedRequest().getServerName());
+        assertEquals(1, metrics.getUntrustedProxyCount());
+        assertEquals(1, metrics.getDefaultsUsedCount());
+    }
+
+    @Test
+    public void setMetricsBeforeInitOverridesMetricsClass() throws Exception {
+        LongAdderForwardedHeaderMetrics metrics = new LongAdderForwardedHeaderMetrics();
+        this.filter = new ForwardedHeaderFilter();
+        this.filter.setMetrics(metrics);
+        initFilter(UNIT_TEST_FORWARDED_FILTER, Collections.singletonMap(METRICS_CLASS, LongAdderForwardedHeaderMetrics.class.getName()));
+        assertSame(metrics, this.filter.getMetrics());
+
+        this.request.addHeader(X_FORWARDED_HOST.headerName(), "example.com");
+        assertEquals("example.com", filterAndGetWrappedRequest().getServerName());
+        assertEquals(1, metrics.getXForwardedHeadersCount());
+    }
+
+    @Test
+    public void metricsTimingAndParseFailures() throws Exception {
+        LongAdderForwardedHeaderMetrics metrics = new LongAdderForwardedHeaderMetrics(true);
+        this.filter.setMetrics(metrics);
+        this.request.addHeader(X_FORWARDED_PROTO.headerName(), "https");
+        this.request.addHeader(X_FORWARDED_HOST.headerName(), "example.com");
+
+        assertEquals("https://example.com/foo/bar", sendRedirect("/foo/bar"));
+        assertEquals(1, metrics.getParseTimedCount());
+        assertEquals(1, metrics.getRedirectTimedCount());
+        assertTrue(metrics.getParseTotalNanos() >= 0);
+
+        this.request.addHeader(X_FORWARDED_PORT.headerName(), "notANumber");
+        HttpServletRequest actual = filterAndGetWrappedRequest();
+        try {
+            actual.getServerName();
+            fail("malformed X-Forwarded-Port must be detected on first access");
+        } catch (NumberFormatException ex) {
+            assertEquals(1, metrics.getParseFailureCount());
+        }
+    }
+
+    @Test(expected = ServletException.class)
+    public void invalidMetricsClass() throws Exception {
+        this.setupWithParams(Collections.singletonMap(METRICS_CLASS, String.class.getName()));
+    }
+
     private void assertHeadersAREProcessed(HttpServletRequest actual) {
         assertEquals("https://84.198.58.199/prefix/mvc-showcase", actual.getRequestURL().toString());
         assertEquals("https", actual.getScheme());
@@ -741,6 +1341,51 @@ public class ForwardedHeaderFilterTest {
     }
 
 
+    @Test
+    public void subclassShouldNotFilterIsHonored() throws Exception {
+        this.filter = new ForwardedHeaderFilter() {
+            @Override
+            protected boolean shouldNotFilter(HttpServletRequest request) throws ServletException {
+                return request.getRequestURI().startsWith("/health") || super.shouldNotFilter(request);
+            }
+        };
+        initFilter(UNIT_TEST_FORWARDED_FILTER, null);
+        this.request.addHeader(X_FORWARDED_HOST.headerName(), "example.com");
+        this.request.setRequestURI("/health");
+
+        this.filter.doFilter(this.request, new MockHttpServletResponse(), this.filterChain);
+        assertSame(this.request, this.filterChain.getRequest());
+        assertFalse(this.request.getAttributeNames().hasMoreElements());
+
+        this.request.setRequestURI("/app");
+        this.filterChain = new MockFilterChain(new HttpServlet() {
+        });
+        this.filter.doFilter(this.request, new MockHttpServletResponse(), this.filterChain);
+        assertEquals("example.com", ((HttpServletRequest) this.filterChain.getRequest()).getServerName());
+    }
+
+    @Test
+    public void subclassDoFilterInternalIsInvoked() throws Exception {
+        this.filter = new ForwardedHeaderFilter() {
+            @Override
+            protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+                    throws ServletException, IOException {
+                response.setHeader("X-Decorated", "true");
+                super.doFilterInternal(request, response, filterChain);
+            }
+        };
+        initFilter(UNIT_TEST_FORWARDED_FILTER, null);
+        this.request.addHeader(X_FORWARDED_HOST.headerName(), "example.com");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        this.filter.doFilter(this.request, response, this.filterChain);
+        HttpServletRequest actual = (HttpServletRequest) this.filterChain.getRequest();
+        assertEquals("true", response.getHeader("X-Decorated"));
+        assertEquals("example.com", actual.getServerName());
+        assertNull(actual.getHeader(X_FORWARDED_HOST.headerName()));
+        assertFalse(actual.getAttributeNames().hasMoreElements());
+    }
+
     private String sendRedirect(final String location) throws ServletException, IOException {
         Filter triggerRedirect = new OncePerRequestFilter() {
             @Override
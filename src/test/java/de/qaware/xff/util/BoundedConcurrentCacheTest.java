@@ -0,0 +1,85 @@
+/*
+ * Copyright 2002-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.qaware.xff.util;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for {@link BoundedConcurrentCache}.
+ */
+public class BoundedConcurrentCacheTest {
+
+    @Test
+    public void capacityIsRoundedUpToPowerOfTwo() {
+        assertEquals(1, new BoundedConcurrentCache<String, String>(1).capacity());
+        assertEquals(2, new BoundedConcurrentCache<String, String>(2).capacity());
+        assertEquals(128, new BoundedConcurrentCache<String, String>(100).capacity());
+        assertEquals(128, new BoundedConcurrentCache<String, String>(128).capacity());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidSize() {
+        new BoundedConcurrentCache<String, String>(0);
+    }
+
+    @Test
+    public void getAndPut() {
+        BoundedConcurrentCache<String, String> cache = new BoundedConcurrentCache<>(16);
+        assertNull(cache.get("a"));
+        cache.put("a", "1");
+        assertEquals("1", cache.get("a"));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void computeIfAbsent() {
+        BoundedConcurrentCache<String, String> cache = new BoundedConcurrentCache<>(16);
+        AtomicInteger invocations = new AtomicInteger();
+        assertEquals("A", cache.computeIfAbsent("a", key -> {
+            invocations.incrementAndGet();
+            return key.toUpperCase();
+        }));
+        assertEquals("A", cache.computeIfAbsent("a", key -> {
+            invocations.incrementAndGet();
+            return key.toUpperCase();
+        }));
+        assertEquals(1, invocations.get());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void sizeIsBounded() {
+        BoundedConcurrentCache<Integer, Integer> cache = new BoundedConcurrentCache<>(4);
+        for (int i = 0; i < 1000; i++) {
+            cache.put(i, i);
+        }
+        int cached = 0;
+        for (int i = 0; i < 1000; i++) {
+            Integer value = cache.get(i);
+            if (value != null) {
+                assertEquals(Integer.valueOf(i), value);
+                cached++;
+            }
+        }
+        assertTrue(cached <= cache.capacity());
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright 2002-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.qaware.xff.util;
+
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for {@link CidrTrie}.
+ */
+public class CidrTrieTest {
+
+    @Test
+    public void empty() {
+        CidrTrie trie = new CidrTrie(Collections.emptyList());
+        assertTrue(trie.isEmpty());
+        assertFalse(trie.contains("10.0.0.1"));
+        assertFalse(trie.contains(null));
+    }
+
+    @Test
+    public void ipv4() {
+        CidrTrie trie = new CidrTrie(Arrays.asList("10.0.0.0/8", " 192.168.1.0/24 ", "203.0.113.7"));
+        assertEquals(3, trie.size());
+        assertTrue(trie.contains("10.0.0.0"));
+        assertTrue(trie.contains("10.255.255.255"));
+        assertFalse(trie.contains("11.0.0.0"));
+        assertTrue(trie.contains("192.168.1.42"));
+        assertFalse(trie.contains("192.168.2.42"));
+        assertTrue(trie.contains("203.0.113.7"));
+        assertFalse(trie.contains("203.0.113.8"));
+    }
+
+    @Test
+    public void ipv4HostBitsAreIgnored() {
+        CidrTrie trie = new CidrTrie(Collections.singletonList("172.16.5.4/12"));
+        assertTrue(trie.contains("172.31.0.1"));
+        assertFalse(trie.contains("172.32.0.1"));
+    }
+
+    @Test
+    public void matchAll() {
+        CidrTrie ipv4 = new CidrTrie(Collections.singletonList("0.0.0.0/0"));
+        assertTrue(ipv4.contains("1.2.3.4"));
+        assertTrue(ipv4.contains("::ffff:1.2.3.4"));
+        assertFalse(ipv4.contains("2001:db8::1"));
+
+        CidrTrie all = new CidrTrie(Collections.singletonList("::/0"));
+        assertTrue(all.contains("1.2.3.4"));
+        assertTrue(all.contains("2001:db8::1"));
+    }
+
+    @Test
+    public void ipv6() {
+        CidrTrie trie = new CidrTrie(Arrays.asList("2001:db8::/32", "fe80::/10", "::1"));
+        assertTrue(trie.contains("2001:db8::1"));
+        assertTrue(trie.contains("2001:0DB8:ffff:ffff:ffff:ffff:ffff:ffff"));
+        assertTrue(trie.contains("[2001:db8::1]"));
+        assertFalse(trie.contains("2001:db9::1"));
+        assertTrue(trie.contains("fe80::1%eth0"));
+        assertTrue(trie.contains("febf::1"));
+        assertFalse(trie.contains("fec0::1"));
+        assertTrue(trie.contains("::1"));
+        assertTrue(trie.contains("0:0:0:0:0:0:0:1"));
+        assertFalse(trie.contains("::2"));
+        assertFalse(trie.contains("127.0.0.1"));
+    }
+
+    @Test
+    public void ipv4MappedIpv6() {
+        CidrTrie trie = new CidrTrie(Arrays.asList("10.0.0.0/8", "::ffff:192.0.2.0/120"));
+        assertTrue(trie.contains("::ffff:10.1.2.3"));
+        assertTrue(trie.contains("::ffff:a01:203"));
+        assertTrue(trie.contains("192.0.2.99"));
+    }
+
+    @Test
+    public void nestedAndOverlappingRanges() {
+        CidrTrie trie = new CidrTrie(Arrays.asList("10.1.2.0/24", "10.1.0.0/16", "10.1.2.3", "10.0.0.0/8", "10.2.0.0/16"));
+        assertTrue(trie.contains("10.1.2.3"));
+        assertTrue(trie.contains("10.200.0.1"));
+        assertFalse(trie.contains("11.1.2.3"));
+    }
+
+    @Test
+    public void malformedAddressesDoNotMatch() {
+        CidrTrie trie = new CidrTrie(Arrays.asList("0.0.0.0/0", "::/0"));
+        for (String malformed : new String[]{"", "localhost", "1.2.3", "1.2.3.4.5", "256.0.0.1", "1.2.3.4.", ".1.2.3",
+                "1..2.3", "1.2.3.4/8", ":", ":::", "1:2", "1:2:3:4:5:6:7:8:9", "1::2::3", "12345::", "1:2:3:4:5:6:7:8::",
+                "::1:", ":1::", "g::1", "::1.2.3", "1.2.3.4::", "[::1", "١.2.3.4"}) {
+            assertFalse(malformed, trie.contains(malformed));
+        }
+    }
+
+    @Test
+    public void invalidRanges() {
+        for (String invalid : new String[]{"", "10.0.0.0/33", "::/129", "10.0.0.0/", "10.0.0.0/a", "example.com/8", "1.2.3/8"}) {
+            try {
+                new CidrTrie(Collections.singletonList(invalid));
+                fail("IllegalArgumentException expected for '" + invalid + "'");
+            } catch (IllegalArgumentException ex) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void sameResultAsLinearScan() throws UnknownHostException {
+        Random random = new Random(42);
+        List<String> cidrs = new ArrayList<>();
+        List<BigInteger[]> ranges = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            boolean ipv6 = random.nextBoolean();
+            byte[] bytes = new byte[ipv6 ? 16 : 4];
+            random.nextBytes(bytes);
+            // keep ranges clustered so nesting and shared prefixes occur
+            bytes[0] = (byte) (ipv6 ? 0x20 : 10);
+            bytes[1] &= 0x0F;
+            int prefixLength = random.nextInt(bytes.length * 8 - 7) + 8;
+            InetAddress address = InetAddress.getByAddress(bytes);
+            cidrs.add(address.getHostAddress() + "/" + prefixLength);
+            ranges.add(range(bytes, prefixLength));
+        }
+        CidrTrie trie = new CidrTrie(cidrs);
+
+        for (int i = 0; i < 20000; i++) {
+            boolean ipv6 = random.nextBoolean();
+            byte[] bytes = new byte[ipv6 ? 16 : 4];
+            random.nextBytes(bytes);
+            bytes[0] = (byte) (ipv6 ? 0x20 : 10);
+            bytes[1] &= 0x0F;
+            BigInteger value = toMapped(bytes);
+            boolean expected = ranges.stream().anyMatch(range -> range[0].compareTo(value) <= 0 && range[1].compareTo(value) >= 0);
+            String address = InetAddress.getByAddress(bytes).getHostAddress();
+            assertEquals(address, expected, trie.contains(address));
+        }
+    }
+
+    private static BigInteger[] range(byte[] bytes, int prefixLength) {
+        int bits = bytes.length * 8;
+        BigInteger hostMask = BigInteger.ONE.shiftLeft(bits - prefixLength).subtract(BigInteger.ONE);
+        BigInteger value = new BigInteger(1, bytes).andNot(hostMask);
+        BigInteger offset = bytes.length == 4 ? BigInteger.valueOf(0xFFFF).shiftLeft(32) : BigInteger.ZERO;
+        return new BigInteger[]{value.add(offset), value.or(hostMask).add(offset)};
+    }
+
+    private static BigInteger toMapped(byte[] bytes) {
+        BigInteger value = new BigInteger(1, bytes);
+        return bytes.length == 4 ? value.add(BigInteger.valueOf(0xFFFF).shiftLeft(32)) : value;
+    }
+}
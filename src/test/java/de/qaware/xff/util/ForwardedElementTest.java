@@ -0,0 +1,116 @@
+/*
+ * Copyright 2002-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.qaware.xff.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Unit tests for {@link ForwardedElement}.
+ */
+public class ForwardedElementTest {
+
+    @Test
+    public void nullAndEmpty() {
+        assertAllNull(ForwardedElement.parseFirst(null));
+        assertAllNull(ForwardedElement.parseFirst(""));
+        assertAllNull(ForwardedElement.parseFirst(" ; ;,"));
+    }
+
+    @Test
+    public void allParameters() {
+        ForwardedElement element = ForwardedElement.parseFirst("for=192.0.2.60;proto=http;by=203.0.113.43;host=example.com");
+        assertEquals("192.0.2.60", element.getFor());
+        assertEquals("http", element.getProto());
+        assertEquals("203.0.113.43", element.getBy());
+        assertEquals("example.com", element.getHost());
+    }
+
+    @Test
+    public void caseInsensitiveNamesAndWhitespace() {
+        ForwardedElement element = ForwardedElement.parseFirst(" FOR = 192.0.2.60 ; Proto=https ;\tHOST=84.198.58.199:443 ");
+        assertEquals("192.0.2.60", element.getFor());
+        assertEquals("https", element.getProto());
+        assertEquals("84.198.58.199:443", element.getHost());
+        assertNull(element.getBy());
+    }
+
+    @Test
+    public void onlyFirstElement() {
+        ForwardedElement element = ForwardedElement.parseFirst("proto=https;host=first.com, proto=http;host=second.com;by=proxy");
+        assertEquals("https", element.getProto());
+        assertEquals("first.com", element.getHost());
+        assertNull(element.getBy());
+    }
+
+    @Test
+    public void firstOccurrenceWins() {
+        ForwardedElement element = ForwardedElement.parseFirst("host=a.com;host=b.com");
+        assertEquals("a.com", element.getHost());
+    }
+
+    @Test
+    public void quotedValues() {
+        ForwardedElement element = ForwardedElement.parseFirst("for=\"[2001:db8:cafe::17]:4711\";host=\"example.com:8443\"");
+        assertEquals("[2001:db8:cafe::17]:4711", element.getFor());
+        assertEquals("example.com:8443", element.getHost());
+    }
+
+    @Test
+    public void quotedValueWithDelimiters() {
+        ForwardedElement element = ForwardedElement.parseFirst("by=\"a,b;c\";proto=https, proto=http");
+        assertEquals("a,b;c", element.getBy());
+        assertEquals("https", element.getProto());
+    }
+
+    @Test
+    public void quotedValueWithEscapes() {
+        ForwardedElement element = ForwardedElement.parseFirst("for=\"_a\\\"b\\\\c\";proto=https");
+        assertEquals("_a\"b\\c", element.getFor());
+        assertEquals("https", element.getProto());
+    }
+
+    @Test
+    public void unterminatedQuotedValue() {
+        ForwardedElement element = ForwardedElement.parseFirst("proto=https;host=\"example.com, proto=http");
+        assertEquals("https", element.getProto());
+        assertEquals("example.com, proto=http", element.getHost());
+    }
+
+    @Test
+    public void lenientParameterNames() {
+        ForwardedElement element = ForwardedElement.parseFirst("Forwarded: for=192.0.2.60; proto=https; host=84.198.58.199:443");
+        assertEquals("192.0.2.60", element.getFor());
+        assertEquals("https", element.getProto());
+        assertEquals("84.198.58.199:443", element.getHost());
+    }
+
+    @Test
+    public void malformedPairsAreSkipped() {
+        ForwardedElement element = ForwardedElement.parseFirst("proto=;garbage;xhost=evil.com;=x;host=\"\";host=example.com");
+        assertNull(element.getProto());
+        assertEquals("example.com", element.getHost());
+    }
+
+    private static void assertAllNull(ForwardedElement element) {
+        assertNull(element.getProto());
+        assertNull(element.getHost());
+        assertNull(element.getFor());
+        assertNull(element.getBy());
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2002-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.qaware.xff.util;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Unit tests for {@link ForwardedFor}.
+ */
+public class ForwardedForTest {
+
+    private final CidrTrie trustedProxies = new CidrTrie(Arrays.asList("10.0.0.0/8", "2001:db8::/32"));
+
+    @Test
+    public void xForwardedForRightmostWithoutTrustedProxies() {
+        assertEquals("192.0.2.1", ForwardedFor.fromXForwardedFor("192.0.2.1", null));
+        assertEquals("10.0.0.2", ForwardedFor.fromXForwardedFor(" 192.0.2.1 , 10.0.0.1, 10.0.0.2 ", null));
+        assertEquals("192.0.2.1", ForwardedFor.fromXForwardedFor("10.0.0.1, 192.0.2.1, ,", null));
+        assertNull(ForwardedFor.fromXForwardedFor(" , ", null));
+        assertNull(ForwardedFor.fromXForwardedFor("192.0.2.1, unknown", null));
+    }
+
+    @Test
+    public void xForwardedForRightToLeft() {
+        assertEquals("198.51.100.7", ForwardedFor.fromXForwardedFor("192.0.2.1, 198.51.100.7, 10.0.0.1, 10.0.0.2", trustedProxies));
+        assertEquals("198.51.100.7", ForwardedFor.fromXForwardedFor("198.51.100.7,10.0.0.1,,2001:db8::1", trustedProxies));
+        assertNull(ForwardedFor.fromXForwardedFor("192.0.2.1, unknown, 10.0.0.1", trustedProxies));
+        assertNull(ForwardedFor.fromXForwardedFor("192.0.2.1, client.example.com, 10.0.0.1", trustedProxies));
+        assertNull(ForwardedFor.fromXForwardedFor("", trustedProxies));
+    }
+
+    @Test
+    public void xForwardedForAllTrusted() {
+        assertEquals("10.0.0.3", ForwardedFor.fromXForwardedFor("10.0.0.3, 10.0.0.1, 10.0.0.2", trustedProxies));
+    }
+
+    @Test
+    public void forwardedRightmostWithoutTrustedProxies() {
+        assertEquals("10.0.0.1", ForwardedFor.fromForwarded("for=192.0.2.43;proto=https, for=10.0.0.1", null));
+        assertEquals("192.0.2.43", ForwardedFor.fromForwarded("for=192.0.2.43, proto=https", null));
+        assertNull(ForwardedFor.fromForwarded("for=192.0.2.43, for=_hidden", null));
+    }
+
+    @Test
+    public void forwardedRightToLeft() {
+        assertEquals("[2001:db9::17]:4711", ForwardedFor.fromForwarded(
+                "for=192.0.2.43, for=\"[2001:db9::17]:4711\";by=\"a,b\", proto=http, for=\"[2001:db8::1]\";host=\"x,y\", for=10.0.0.1:80",
+                trustedProxies));
+        assertNull(ForwardedFor.fromForwarded("for=192.0.2.43, for=_hidden, for=10.0.0.1", trustedProxies));
+        assertNull(ForwardedFor.fromForwarded("for=192.0.2.43, for=unknown, for=10.0.0.1", trustedProxies));
+        assertEquals("198.51.100.7", ForwardedFor.fromForwarded(
+                "for=192.0.2.43, for=198.51.100.7;by=\"1\\\",2\", for=10.0.0.1", trustedProxies));
+        assertEquals("10.0.0.9", ForwardedFor.fromForwarded("for=10.0.0.9, by=x, for=10.0.0.1", trustedProxies));
+        assertNull(ForwardedFor.fromForwarded("proto=https, host=example.com", trustedProxies));
+    }
+
+    @Test
+    public void host() {
+        assertEquals("192.0.2.43", ForwardedFor.host("192.0.2.43"));
+        assertEquals("192.0.2.43", ForwardedFor.host("192.0.2.43:80"));
+        assertEquals("2001:db8:cafe::17", ForwardedFor.host("[2001:db8:cafe::17]:4711"));
+        assertEquals("2001:db8:cafe::17", ForwardedFor.host("[2001:db8:cafe::17]"));
+        assertEquals("2001:db8:cafe::17", ForwardedFor.host("2001:db8:cafe::17"));
+        assertEquals("unknown", ForwardedFor.host("unknown"));
+        assertEquals("_hidden", ForwardedFor.host("_hidden:_port"));
+    }
+
+    @Test
+    public void port() {
+        assertEquals(0, ForwardedFor.port("192.0.2.43"));
+        assertEquals(80, ForwardedFor.port("192.0.2.43:80"));
+        assertEquals(4711, ForwardedFor.port("[2001:db8:cafe::17]:4711"));
+        assertEquals(0, ForwardedFor.port("[2001:db8:cafe::17]"));
+        assertEquals(0, ForwardedFor.port("2001:db8:cafe::17"));
+        assertEquals(0, ForwardedFor.port("192.0.2.43:"));
+        assertEquals(0, ForwardedFor.port("_hidden:_port"));
+        assertEquals(0, ForwardedFor.port("192.0.2.43:99999999999"));
+    }
+}
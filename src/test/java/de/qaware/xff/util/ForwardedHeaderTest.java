@@ -21,14 +21,16 @@ import java.util.Locale;
 
 import static junit.framework.TestCase.assertTrue;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 
 /**
  *
  */
 public class ForwardedHeaderTest {
 
-    private String[] supportedHeaders = {"Forwarded", "X-Forwarded-Host", "X-Forwarded-Port", "X-Forwarded-Proto", "X-Forwarded-Prefix"};
+    private String[] supportedHeaders = {"Forwarded", "X-Forwarded-Host", "X-Forwarded-Port", "X-Forwarded-Proto", "X-Forwarded-Prefix", "X-Forwarded-For"};
 
     @Test
     public void fromName() {
@@ -65,6 +67,39 @@ public class ForwardedHeaderTest {
         }
     }
 
+    @Test
+    public void forNameCharSequence() {
+        for (String header : supportedHeaders) {
+            assertEquals(ForwardedHeader.forName(header), ForwardedHeader.forName(new StringBuilder(header.toUpperCase(Locale.ENGLISH))));
+        }
+        assertTrue(ForwardedHeader.isForwardedHeader(new StringBuilder("x-FORWARDED-for")));
+    }
+
+    @Test
+    public void notForwardedHeaders() {
+        String[] others = {null, "", "Host", "Forwarder", "Forwarded ", "X-Forwarded-Hose", "X-Forwarded-Pert",
+                "Y-Forwarded-Port", "X-Forwarded_Proto", "X-Forwarded-Prefis", "X-Forwarded-Fo", "X-Forwarded-Fork",
+                "X-Forwarded-Server", "Content-Length", "X-Forwarded-\u0130ost"};
+        for (String header : others) {
+            assertNull(header, ForwardedHeader.forName(header));
+            assertFalse(header, ForwardedHeader.isForwardedHeader(header));
+        }
+    }
+
+    @Test
+    public void mask() {
+        int all = 0;
+        for (ForwardedHeader header : ForwardedHeader.values()) {
+            assertEquals(0, all & header.mask());
+            all |= header.mask();
+            assertTrue(header.isIn(ForwardedHeader.ALL_HEADERS_MASK));
+            assertFalse(header.isIn(0));
+        }
+        assertEquals(ForwardedHeader.ALL_HEADERS_MASK, all);
+        assertTrue(ForwardedHeader.X_FORWARDED_HOST.isIn(ForwardedHeader.X_FORWARDED_HOST.mask() | ForwardedHeader.FORWARDED.mask()));
+        assertFalse(ForwardedHeader.X_FORWARDED_PORT.isIn(ForwardedHeader.X_FORWARDED_HOST.mask() | ForwardedHeader.FORWARDED.mask()));
+    }
+
     @Test
     public void testToString() {
         for (String header : supportedHeaders) {
@@ -110,6 +110,44 @@ public class HttpServletRequestUtilTest {
 
     }
 
+    @Test
+    public void getForwardedHeaders() {
+        mockRequest.addHeader("MyHeader", "value1");
+        mockRequest.addHeader(ForwardedHeader.X_FORWARDED_HOST.headerName(), "hostA");
+        mockRequest.addHeader(ForwardedHeader.X_FORWARDED_HOST.headerName(), "hostB");
+        mockRequest.addHeader(ForwardedHeader.X_FORWARDED_PROTO.headerName().toUpperCase(), "https");
+        mockRequest.setContent(new byte[2]);
+
+        HttpHeaders headers = HttpServletRequestUtil.getForwardedHeaders(mockRequest, null);
+        assertEquals(2, headers.size());
+        assertFalse(headers.containsKey("MyHeader"));
+        assertFalse(headers.containsKey(HttpHeaders.CONTENT_LENGTH));
+        assertEquals("hostA", headers.getFirst(ForwardedHeader.X_FORWARDED_HOST.headerName()));
+        assertEquals("https", headers.getFirst(ForwardedHeader.X_FORWARDED_PROTO.headerName()));
+    }
+
+    @Test
+    public void getForwardedHeaderMask() {
+        assertEquals(0, HttpServletRequestUtil.getForwardedHeaderMask(mockRequest));
+
+        mockRequest.addHeader("MyHeader", "value1");
+        mockRequest.addHeader(ForwardedHeader.X_FORWARDED_HOST.headerName().toLowerCase(), "hostA");
+        mockRequest.addHeader(ForwardedHeader.FORWARDED.headerName(), "proto=https");
+        assertEquals(ForwardedHeader.X_FORWARDED_HOST.mask() | ForwardedHeader.FORWARDED.mask(),
+                HttpServletRequestUtil.getForwardedHeaderMask(mockRequest));
+    }
+
+    @Test
+    public void getForwardedHeadersOnlyLooksUpPresentHeaders() {
+        mockRequest.addHeader(ForwardedHeader.X_FORWARDED_HOST.headerName(), "hostA");
+        mockRequest.addHeader(ForwardedHeader.X_FORWARDED_PROTO.headerName(), "https");
+
+        HttpHeaders headers = HttpServletRequestUtil.getForwardedHeaders(mockRequest, null, ForwardedHeader.X_FORWARDED_HOST.mask());
+        assertEquals(1, headers.size());
+        assertEquals("hostA", headers.getFirst(ForwardedHeader.X_FORWARDED_HOST.headerName()));
+        assertTrue(HttpServletRequestUtil.getForwardedHeaders(mockRequest, null, 0).isEmpty());
+    }
+
     @Test
     public void getFirstToken(){
         assertNull(HttpServletRequestUtil.getFirstValueToken(null,","));
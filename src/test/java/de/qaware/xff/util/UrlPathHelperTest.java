@@ -15,14 +15,20 @@
  */
 package de.qaware.xff.util;
 
+import org.apache.commons.lang3.StringUtils;
 import org.assertj.core.api.Assertions;
 import org.junit.Test;
 import org.springframework.mock.web.MockHttpServletRequest;
 
+import javax.servlet.http.HttpServletRequest;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
+import java.util.Random;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 /**
  * Unit tests for {@link UrlPathHelper}.
@@ -93,6 +99,81 @@ public class UrlPathHelperTest {
 
 	}
 
+	@Test
+	public void getRequestUriUsesOverriddenDecodeRequestString() {
+		UrlPathHelper customHelper = new UrlPathHelper() {
+			@Override
+			public String decodeRequestString(HttpServletRequest request, String source) {
+				return super.decodeRequestString(request, source).toLowerCase();
+			}
+		};
+		request.setRequestURI("/Foo%20Bar//Baz;jsessionid=asdf");
+		assertEquals("Incorrect path returned", "/foo bar/baz", customHelper.getRequestUri(request));
+		assertEquals("Incorrect path returned", "/Foo Bar/Baz", helper.getRequestUri(request));
+	}
+
+	@Test
+	public void getRequestUriUsesOverriddenDetermineEncoding() {
+		UrlPathHelper customHelper = new UrlPathHelper() {
+			@Override
+			protected String determineEncoding(HttpServletRequest request) {
+				return "UTF-8";
+			}
+		};
+		request.setRequestURI("/caf%C3%A9");
+		assertEquals("Incorrect path returned", "/caf\u00e9", customHelper.getRequestUri(request));
+		assertEquals("Incorrect path returned", "/caf\u00c3\u00a9", helper.getRequestUri(request));
+	}
+
+	@Test
+	public void singlePassOnlyForSubclassesNotOverridingDecodingSteps() {
+		UrlPathHelper plainSubclass = new UrlPathHelper() {
+			@Override
+			public String toString() {
+				return "plain";
+			}
+		};
+		assertFalse(UrlPathHelper.overridesDecodingSteps(UrlPathHelper.class));
+		assertFalse(UrlPathHelper.overridesDecodingSteps(plainSubclass.getClass()));
+		assertTrue(UrlPathHelper.overridesDecodingSteps(SemicolonKeepingUrlPathHelper.class));
+		assertTrue(UrlPathHelper.overridesDecodingSteps(InheritingUrlPathHelper.class));
+	}
+
+	private static class SemicolonKeepingUrlPathHelper extends UrlPathHelper {
+		@Override
+		public String removeSemicolonContent(String requestUri) {
+			return requestUri;
+		}
+	}
+
+	private static class InheritingUrlPathHelper extends SemicolonKeepingUrlPathHelper {
+	}
+
+	@Test
+	public void invalidEncodedSequence() {
+		request.setRequestURI("/foo%zz");
+		Assertions.assertThatThrownBy(() -> helper.getRequestUri(request))//
+				.isInstanceOf(IllegalArgumentException.class);
+
+		request.setRequestURI("/foo%2");
+		Assertions.assertThatThrownBy(() -> helper.getRequestUri(request))//
+				.isInstanceOf(IllegalArgumentException.class);
+	}
+
+	@Test
+	public void invalidEncodedSequenceLenient() {
+		helper.setLenientDecode(true);
+
+		request.setRequestURI("/foo%zz");
+		assertEquals("/foo%zz", helper.getRequestUri(request));
+
+		request.setRequestURI("/foo%20bar%2");
+		assertEquals("/foo bar%2", helper.getRequestUri(request));
+
+		request.setRequestURI("/%%41%");
+		assertEquals("/%A%", helper.getRequestUri(request));
+	}
+
 	@Test
 	public void getRequestRemoveSemicolonContent() throws UnsupportedEncodingException {
 		helper.setRemoveSemicolonContent(true);
@@ -127,6 +208,69 @@ public class UrlPathHelperTest {
 		assertEquals("JSESSIONID should always be removed", "/foo;a=b;c=d", helper.getRequestUri(request));
 	}
 
+	@Test
+	public void getRequestUriMatchesStepwiseCleanup() {
+		String[] tokens = {"/", "//", ";", "a", "%", "%2F", "%2f", "%3B", "%C3%A4", "%E2%82", "%zz", "%2", ";jsessionid=x",
+				";JSESSIONID=", "\u00e4", "\u012f", "\u20ac"};
+		String[] encodings = {"UTF-8", "ISO-8859-1", "UTF-16", "fooBarCoding"};
+		Random random = new Random(4711);
+		StringBuilder uri = new StringBuilder();
+		for (int i = 0; i < 100_000; i++) {
+			uri.setLength(0);
+			int length = random.nextInt(10);
+			for (int t = 0; t < length; t++) {
+				uri.append(tokens[random.nextInt(tokens.length)]);
+			}
+			UrlPathHelper pathHelper = new UrlPathHelper();
+			pathHelper.setDefaultEncoding("UTF-8");
+			pathHelper.setUrlDecode(random.nextInt(4) != 0);
+			pathHelper.setRemoveSemicolonContent(random.nextBoolean());
+			pathHelper.setLenientDecode(random.nextBoolean());
+			MockHttpServletRequest mockRequest = new MockHttpServletRequest();
+			mockRequest.setRequestURI(uri.toString());
+			mockRequest.setCharacterEncoding(encodings[random.nextInt(encodings.length)]);
+
+			String expected = null;
+			try {
+				expected = getRequestUriStepwise(pathHelper, mockRequest);
+			} catch (IllegalArgumentException ex) {
+				try {
+					pathHelper.getRequestUri(mockRequest);
+					fail("IllegalArgumentException expected for " + uri);
+				} catch (IllegalArgumentException expectedEx) {
+					// both invalid
+				}
+			}
+			if (expected != null) {
+				assertEquals(uri.toString(), expected, pathHelper.getRequestUri(mockRequest));
+			}
+		}
+	}
+
+	@Test(timeout = 2000)
+	public void getRequestUriIsLinear() {
+		request.setRequestURI(StringUtils.repeat("/;a", 100_000) + StringUtils.repeat("//", 100_000));
+		assertEquals("/", helper.getRequestUri(request));
+
+		helper.setRemoveSemicolonContent(false);
+		request.setRequestURI(StringUtils.repeat("/%2F;a", 100_000));
+		assertEquals(StringUtils.repeat("/;a", 100_000), helper.getRequestUri(request));
+	}
+
+	/**
+	 * The URI cleanup previously done by {@link UrlPathHelper}: semicolon content, decoding and "//" one after the other.
+	 */
+	private static String getRequestUriStepwise(UrlPathHelper pathHelper, MockHttpServletRequest mockRequest) {
+		String uri = mockRequest.getRequestURI();
+		String cleanedUri = pathHelper.removeSemicolonContent(uri);
+		cleanedUri = pathHelper.decodeRequestString(mockRequest, cleanedUri);
+		while (cleanedUri.contains("//")) {
+			int index = cleanedUri.indexOf("//");
+			cleanedUri = cleanedUri.substring(0, index) + cleanedUri.substring(index + 1);
+		}
+		return cleanedUri;
+	}
+
 	@Test
 	public void setDefaultEncoding() {
 		helper.setDefaultEncoding("UTF-8");
@@ -166,6 +310,25 @@ public class UrlPathHelperTest {
 	}
 
 
+	@Test
+	public void uriDecodeWithoutEscapesReturnsSource() {
+		String source = "/welcome.html;a=\u00e4";
+		Assertions.assertThat(helper.uriDecode(source, "UTF-8")).isSameAs(source);
+		Assertions.assertThat(helper.uriDecode(source, "fooBarCoding")).isSameAs(source);
+	}
+
+	@Test
+	public void badRequestEncodingFallsBackOnEveryRequest() throws UnsupportedEncodingException {
+		helper.setDefaultEncoding("UTF-8");
+		String uri = "/welcome.html?foo=" + URLEncoder.encode("\u00e4\u00f6\u00fc", "UTF-8");
+		request.setRequestURI(uri);
+		request.setCharacterEncoding("otherFooBarCoding");
+
+		assertEquals("/welcome.html?foo=\u00e4\u00f6\u00fc", helper.getRequestUri(request));
+		assertEquals("/welcome.html?foo=\u00e4\u00f6\u00fc", helper.getRequestUri(request));
+		assertEquals("/a+%C3", helper.uriDecode("/a+%25C3", "ISO-8859-1"));
+	}
+
 	@Test
 	public void noRequestEncodingAndWrongDefault() throws UnsupportedEncodingException {
 		helper.setDefaultEncoding("fooBarCoding");
@@ -15,6 +15,8 @@
  */
 package de.qaware.xff.util.uri;
 
+import de.qaware.xff.util.ForwardedHeader;
+import de.qaware.xff.util.HttpServletRequestUtil;
 import org.apache.commons.collections4.MultiValuedMap;
 import org.apache.commons.collections4.multimap.ArrayListValuedHashMap;
 import org.apache.commons.lang3.StringUtils;
@@ -27,13 +29,18 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import static de.qaware.xff.util.ForwardedHeader.*;
 import static de.qaware.xff.util.uri.UriComponentsBuilder.fromUriString;
 import static junit.framework.TestCase.assertTrue;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
 
 
 /**
@@ -256,6 +263,44 @@ public class UriComponentsBuilderTest {
         assertEquals("a=1", result.getQuery());
     }
 
+    @Test
+    public void fromHttpRequestMatchesRequestUrl() {
+        String[][] requests = {
+                // scheme, serverName, serverPort, requestURI, queryString
+                {"http", "localhost", "80", "/path", "a=1&b"},
+                {"http", "localhost", "8080", "/p%20a/th;jsessionid=1", null},
+                {"https", "example.com", "443", "/", ""},
+                {"https", "example.com", "8443", "", "q=%C3%A4"},
+                {"http", "127.0.0.1", "-1", "/a/b/", null},
+                {"http", "[::1]", "8080", "/", "x=y"},
+        };
+        for (String[] values : requests) {
+            MockHttpServletRequest request = new MockHttpServletRequest();
+            request.setScheme(values[0]);
+            request.setServerName(values[1]);
+            request.setServerPort(Integer.parseInt(values[2]));
+            request.setRequestURI(values[3]);
+            request.setQueryString(values[4]);
+
+            UriComponents expected = UriComponentsBuilder.fromUri(HttpServletRequestUtil.getURI(request)).build();
+            UriComponents actual = UriComponentsBuilder.fromHttpRequest(request).build();
+            assertEquals(expected.toUriString(), actual.toUriString());
+            assertEquals(expected.getPort(), actual.getPort());
+            assertEquals(expected.getQueryParams(), actual.getQueryParams());
+        }
+    }
+
+    @Test
+    public void fromHttpRequestWithUnbracketedIPv6ServerName() {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setScheme("http");
+        request.setServerName("::1");
+        request.setServerPort(8080);
+        request.setRequestURI("/path");
+
+        assertEquals("http://[::1]:8080/path", UriComponentsBuilder.fromHttpRequest(request).build().toUriString());
+    }
+
     @Test // SPR-12771
     public void fromHttpRequestResetsPortBeforeSettingIt() {
         MockHttpServletRequest request = new MockHttpServletRequest();
@@ -393,6 +438,55 @@ public class UriComponentsBuilderTest {
         assertEquals(9090, result.getPort());
     }
 
+    @Test
+    public void fromHttpRequestLenientSkipsMalformedPort() {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setScheme("http");
+        request.setServerName("localhost");
+        request.setServerPort(8080);
+        request.addHeader(X_FORWARDED_HOST.headerName(), "foobarhost");
+        request.addHeader(X_FORWARDED_PORT.headerName(), "90x0");
+
+        UriComponentsBuilder builder = UriComponentsBuilder.fromHttpRequestLenient(request, null, ForwardedHeader.ALL_HEADERS_MASK);
+        assertTrue(builder.hasMalformedForwardedHeader());
+        UriComponents result = builder.build();
+        assertEquals("foobarhost", result.getHost());
+        assertEquals(-1, result.getPort());
+
+        try {
+            UriComponentsBuilder.fromHttpRequest(request).build();
+            fail("strict parsing must throw");
+        } catch (NumberFormatException ex) {
+            // expected
+        }
+    }
+
+    @Test
+    public void fromHttpRequestLenientSkipsHostWithMalformedPort() {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setScheme("http");
+        request.setServerName("localhost");
+        request.setServerPort(8080);
+        request.addHeader(FORWARDED.headerName(), "host=foobarhost:99999;proto=https");
+
+        UriComponentsBuilder builder = UriComponentsBuilder.fromHttpRequestLenient(request, null, ForwardedHeader.ALL_HEADERS_MASK);
+        assertTrue(builder.hasMalformedForwardedHeader());
+        UriComponents result = builder.build();
+        assertEquals("https", result.getScheme());
+        assertEquals("localhost", result.getHost());
+        // strict parsing keeps accepting any int
+        assertEquals(99999, UriComponentsBuilder.fromHttpRequest(request).build().getPort());
+
+        request = new MockHttpServletRequest();
+        request.setScheme("http");
+        request.setServerName("localhost");
+        request.setServerPort(8080);
+        request.addHeader(FORWARDED.headerName(), "host=foobarhost:65535;proto=https");
+        builder = UriComponentsBuilder.fromHttpRequestLenient(request, null, ForwardedHeader.ALL_HEADERS_MASK);
+        assertFalse(builder.hasMalformedForwardedHeader());
+        assertEquals(65535, builder.build().getPort());
+    }
+
     @Test // SPR-11872
     public void fromHttpRequestWithForwardedHostWithDefaultPort() {
         MockHttpServletRequest request = new MockHttpServletRequest();
@@ -594,6 +688,35 @@ public class UriComponentsBuilderTest {
         assertEquals(expectedQueryParams, result.getQueryParams());
     }
 
+    @Test
+    public void queryMatchesRegularExpression() {
+        Pattern queryParamPattern = Pattern.compile("([^&=]+)(=?)([^&]+)?");
+        String[] tokens = {"a", "b", "=", "&", "%", " "};
+        Random random = new Random(4711);
+        StringBuilder query = new StringBuilder();
+        for (int i = 0; i < 100_000; i++) {
+            query.setLength(0);
+            int length = random.nextInt(12);
+            for (int t = 0; t < length; t++) {
+                query.append(tokens[random.nextInt(tokens.length)]);
+            }
+            MultiValuedMap<String, String> expected = new ArrayListValuedHashMap<>();
+            Matcher matcher = queryParamPattern.matcher(query);
+            while (matcher.find()) {
+                String value = matcher.group(3);
+                expected.put(matcher.group(1), value == null && !matcher.group(2).isEmpty() ? "" : value);
+            }
+            assertEquals(query.toString(), expected,
+                    UriComponentsBuilder.newInstance().query(query.toString()).build().getQueryParams());
+        }
+    }
+
+    @Test(timeout = 1000)
+    public void queryIsLinear() {
+        String query = StringUtils.repeat("=", 100_000) + StringUtils.repeat("a=", 100_000);
+        assertEquals(1, UriComponentsBuilder.newInstance().query(query).build().getQueryParams().size());
+    }
+
     @Test
     public void emptyQueryParam() throws URISyntaxException {
         UriComponentsBuilder builder = UriComponentsBuilder.newInstance();
@@ -16,6 +16,7 @@
 package de.qaware.xff.util.uri;
 
 
+import org.apache.commons.lang3.StringUtils;
 import org.junit.Test;
 
 import java.io.ByteArrayInputStream;
@@ -24,14 +25,22 @@ import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedList;
 import java.util.Map;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import static de.qaware.xff.util.uri.UriComponentsBuilder.fromUriString;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 
 /**
  * @author Arjen Poutsma
@@ -134,6 +143,15 @@ public class UriComponentsTest {
 		assertEquals("http://example.com/bar", uriComponents.normalize().toString());
 	}
 
+	@Test
+	public void normalizePath() {
+		assertEquals("/bar", UriComponents.normalizePath("/foo/../bar"));
+		assertEquals("/a/c", UriComponents.normalizePath("/a/./b/../c"));
+		assertEquals("../x", UriComponents.normalizePath("a/../../x"));
+		assertEquals("/a/b", UriComponents.normalizePath("/a\\b"));
+		assertNull(UriComponents.normalizePath(null));
+	}
+
 	@Test
 	public void serializable() throws Exception {
 		UriComponents uriComponents = UriComponentsBuilder.fromUriString(
@@ -146,6 +164,51 @@ public class UriComponentsTest {
 		assertThat(uriComponents.toString()).isEqualTo(readObject.toString());
 	}
 
+	@Test
+	public void serializedStringFormIsCached() throws Exception {
+		UriComponents uriComponents = UriComponentsBuilder.fromUriString("http://example.com:8080")
+				.pathSegment("a", "b").query("x=1&y").fragment("top").build();
+		String uriString = uriComponents.toUriString();
+		assertEquals("http://example.com:8080/a/b?x=1&y#top", uriString);
+		assertSame(uriString, uriComponents.toUriString());
+		assertSame(uriString, uriComponents.toString());
+		assertSame(uriComponents.getPath(), uriComponents.getPath());
+		assertSame(uriComponents.getQuery(), uriComponents.getQuery());
+		assertEquals(8080, uriComponents.getPort());
+
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		ObjectOutputStream oos = new ObjectOutputStream(bos);
+		oos.writeObject(uriComponents);
+		ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bos.toByteArray()));
+		UriComponents readObject = (UriComponents) ois.readObject();
+		assertEquals(uriString, readObject.toUriString());
+		assertEquals(uriComponents.hashCode(), readObject.hashCode());
+		assertEquals(uriComponents, readObject);
+		assertEquals(8080, readObject.getPort());
+	}
+
+	@Test
+	public void serializedPortIsParsedAfterDeserialization() throws Exception {
+		UriComponents withoutPort = UriComponentsBuilder.fromUriString("http://example.com/a").build();
+		UriComponents zeroPort = UriComponentsBuilder.fromUriString("http://example.com:0/a").build();
+		assertEquals(-1, withoutPort.getPort());
+		assertEquals(0, zeroPort.getPort());
+
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		ObjectOutputStream oos = new ObjectOutputStream(bos);
+		oos.writeObject(withoutPort);
+		oos.writeObject(zeroPort);
+		ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bos.toByteArray()));
+		assertEquals(-1, ((UriComponents) ois.readObject()).getPort());
+		assertEquals(0, ((UriComponents) ois.readObject()).getPort());
+	}
+
+	@Test(expected = NumberFormatException.class)
+	public void invalidPortIsReportedOnAccess() {
+		UriComponents uriComponents = UriComponentsBuilder.fromUriString("http://example.com").port("8o").build();
+		uriComponents.getPort();
+	}
+
 	@Test
 	public void copyToUriComponentsBuilder() {
 		UriComponents source = UriComponentsBuilder.fromPath("/foo/bar").pathSegment("ba/z").build();
@@ -226,4 +289,177 @@ public class UriComponentsTest {
 
 	}
 
+	@Test
+	public void expandMatchesRegularExpression() {
+		UriTemplateVariables variables = new UriTemplateVariables() {
+			@Override
+			Object getValue(String name) {
+				return "b".equals(name) ? SKIP_VALUE : "$" + name + "\\";
+			}
+		};
+		String[] tokens = {"{", "}", "/", "a", "b", "{a}", "{b}", "{}"};
+		Random random = new Random(4711);
+		StringBuilder source = new StringBuilder();
+		for (int i = 0; i < 100_000; i++) {
+			source.setLength(0);
+			int length = random.nextInt(10);
+			for (int t = 0; t < length; t++) {
+				source.append(tokens[random.nextInt(tokens.length)]);
+			}
+			String template = source.toString();
+			assertEquals(template, expandWithRegularExpression(template, variables),
+					UriComponents.expandUriComponent(template, variables));
+		}
+	}
+
+	@Test(timeout = 1000)
+	public void expandIsLinearForUnclosedVariables() {
+		String unclosed = StringUtils.repeat('{', 200_000);
+		assertEquals(unclosed, UriComponents.expandUriComponent(unclosed, new MapTemplateVariables(Collections.emptyMap())));
+		assertEquals(unclosed + "/x", UriComponents.expandUriComponent(unclosed + "/{a}",
+				new MapTemplateVariables(Collections.singletonMap("a", "x"))));
+	}
+
+	@Test
+	public void normalizePathMatchesSplittingImplementation() {
+		String[] tokens = {"a", "bc", ".", "..", "...", "/", "\\", "//", ":", "file:", " "};
+		Random random = new Random(4711);
+		StringBuilder path = new StringBuilder();
+		for (int i = 0; i < 100_000; i++) {
+			path.setLength(0);
+			int length = random.nextInt(10);
+			for (int t = 0; t < length; t++) {
+				path.append(tokens[random.nextInt(tokens.length)]);
+			}
+			String source = path.toString();
+			assertEquals(source, cleanPathWithSplitting(source), UriComponents.normalizePath(source));
+		}
+		String unchanged = "/a//b/.c/..d/";
+		assertSame(unchanged, UriComponents.normalizePath(unchanged));
+	}
+
+	@Test(timeout = 1000)
+	public void normalizePathIsLinear() {
+		String path = "/" + StringUtils.repeat("a/", 100_000) + StringUtils.repeat("../", 100_001) + "b";
+		assertEquals("/../b", UriComponents.normalizePath(path));
+	}
+
+	/**
+	 * Path normalization as previously done by {@link HierarchicalUriComponents}.
+	 */
+	private static String cleanPathWithSplitting(String path) {
+		if (StringUtils.isBlank(path)) {
+			return path;
+		}
+		String pathToUse = StringUtils.replace(path, "\\", "/");
+		int prefixIndex = pathToUse.indexOf(':');
+		String prefix = "";
+		if (prefixIndex != -1) {
+			prefix = pathToUse.substring(0, prefixIndex + 1);
+			if (prefix.contains("/")) {
+				prefix = "";
+			} else {
+				pathToUse = pathToUse.substring(prefixIndex + 1);
+			}
+		}
+		if (pathToUse.startsWith("/")) {
+			prefix = prefix + "/";
+			pathToUse = pathToUse.substring(1);
+		}
+		String[] pathArray = StringUtils.splitPreserveAllTokens(pathToUse, "/");
+		LinkedList<String> pathElements = new LinkedList<>();
+		int tops = 0;
+		for (int i = pathArray.length - 1; i >= 0; i--) {
+			String element = pathArray[i];
+			if (".".equals(element)) {
+				continue;
+			}
+			if ("..".equals(element)) {
+				tops++;
+			} else if (tops > 0) {
+				tops--;
+			} else {
+				pathElements.addFirst(element);
+			}
+		}
+		for (int i = 0; i < tops; i++) {
+			pathElements.addFirst("..");
+		}
+		return prefix + String.join("/", pathElements);
+	}
+
+	@Test
+	public void isAllowedMatchesIsAllowedCharacter() {
+		for (URIComponentType type : URIComponentType.values()) {
+			for (int c = -1; c < 0x200; c++) {
+				assertEquals(type + " " + c, type.isAllowedCharacter(c), type.isAllowed(c));
+			}
+		}
+	}
+
+	@Test
+	public void encodeUriComponentMatchesByteEncoder() {
+		char[] chars = {'a', 'Z', '0', ' ', '%', '/', '?', '=', '&', '[', ':', '~', '\u007f', '\u00e4', '\u20ac',
+				'\ud83d', '\ude00'};
+		Charset[] charsets = {StandardCharsets.UTF_8, StandardCharsets.ISO_8859_1, StandardCharsets.US_ASCII, StandardCharsets.UTF_16};
+		Random random = new Random(4711);
+		StringBuilder source = new StringBuilder();
+		for (int i = 0; i < 50_000; i++) {
+			source.setLength(0);
+			int length = random.nextInt(8);
+			for (int c = 0; c < length; c++) {
+				source.append(chars[random.nextInt(chars.length)]);
+			}
+			String value = source.toString();
+			URIComponentType type = URIComponentType.values()[random.nextInt(URIComponentType.values().length)];
+			Charset charset = charsets[random.nextInt(charsets.length)];
+			assertEquals(value + " " + type + " " + charset, encodeWithByteArrayOutputStream(value, charset, type),
+					HierarchicalUriComponents.encodeUriComponent(value, charset, type));
+		}
+		String unchanged = "/hotel/list";
+		assertSame(unchanged, HierarchicalUriComponents.encodeUriComponent(unchanged, StandardCharsets.UTF_8, URIComponentType.PATH));
+		assertSame(unchanged, HierarchicalUriComponents.encodeUriComponent(unchanged, StandardCharsets.ISO_8859_1, URIComponentType.PATH));
+	}
+
+	/**
+	 * Encoding as previously done by {@link HierarchicalUriComponents}.
+	 */
+	private static String encodeWithByteArrayOutputStream(String source, Charset charset, URIComponentType type) {
+		if (source.isEmpty()) {
+			return source;
+		}
+		byte[] bytes = source.getBytes(charset);
+		ByteArrayOutputStream bos = new ByteArrayOutputStream(bytes.length);
+		boolean changed = false;
+		for (byte b : bytes) {
+			int value = b < 0 ? b + 256 : b;
+			if (type.isAllowedCharacter(value)) {
+				bos.write(value);
+			} else {
+				bos.write('%');
+				bos.write(Character.toUpperCase(Character.forDigit((value >> 4) & 0xF, 16)));
+				bos.write(Character.toUpperCase(Character.forDigit(value & 0xF, 16)));
+				changed = true;
+			}
+		}
+		return (changed ? new String(bos.toByteArray(), charset) : source);
+	}
+
+	/**
+	 * Variable expansion with the regular expression previously used by {@link UriComponents}.
+	 */
+	private static String expandWithRegularExpression(String source, UriTemplateVariables variables) {
+		Matcher matcher = Pattern.compile("\\{([^/]+?)\\}").matcher(source);
+		StringBuffer sb = new StringBuffer();
+		while (matcher.find()) {
+			Object value = variables.getValue(matcher.group(1));
+			if (UriTemplateVariables.SKIP_VALUE.equals(value)) {
+				continue;
+			}
+			matcher.appendReplacement(sb, Matcher.quoteReplacement(value.toString()));
+		}
+		matcher.appendTail(sb);
+		return sb.toString();
+	}
+
 }
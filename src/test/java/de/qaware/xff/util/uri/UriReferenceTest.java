@@ -0,0 +1,133 @@
+/*
+ * Copyright 2002-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.qaware.xff.util.uri;
+
+import org.apache.commons.lang3.StringUtils;
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Differential tests of {@link UriReference} against the regular expressions previously used by
+ * {@link UriComponentsBuilder#fromUriString(String)} and {@link UriComponentsBuilder#fromHttpUrl(String)}.
+ */
+public class UriReferenceTest {
+
+    private static final String SCHEME_PATTERN = "([^:/?#]+):";
+    private static final String HTTP_PATTERN = "(?i)(http|https):";
+    private static final String USERINFO_PATTERN = "([^@\\[/?#]*)";
+    private static final String HOST_IPV4_PATTERN = "[^\\[/?#:]*";
+    private static final String HOST_IPV6_PATTERN = "\\[[\\p{XDigit}\\:\\.]*[%\\p{Alnum}]*\\]";
+    private static final String HOST_PATTERN = "(" + HOST_IPV6_PATTERN + "|" + HOST_IPV4_PATTERN + ")";
+    private static final String PORT_PATTERN = "(\\d*(?:\\{[^/]+?\\})?)";
+    private static final String PATH_PATTERN = "([^?#]*)";
+    private static final String QUERY_PATTERN = "([^#]*)";
+    private static final String LAST_PATTERN = "(.*)";
+
+    private static final Pattern URI_PATTERN = Pattern.compile(
+            "^(" + SCHEME_PATTERN + ")?" + "(//(" + USERINFO_PATTERN + "@)?" + HOST_PATTERN + "(:" + PORT_PATTERN +
+                    ")?" + ")?" + PATH_PATTERN + "(\\?" + QUERY_PATTERN + ")?" + "(#" + LAST_PATTERN + ")?");
+
+    private static final Pattern HTTP_URL_PATTERN = Pattern.compile(
+            "^" + HTTP_PATTERN + "(//(" + USERINFO_PATTERN + "@)?" + HOST_PATTERN + "(:" + PORT_PATTERN + ")?" + ")?" +
+                    PATH_PATTERN + "(\\?" + LAST_PATTERN + ")?");
+
+    private static final String[] PREFIXES = {"", "", "//", "http://", "HTTPS://", "https:", "a:", "http:/"};
+
+    private static final String[] TOKENS = {"a", "Z", "f", "0", "9", ":", "/", "?", "#", "@", "[", "]", "{", "}",
+            "%", ".", "-", "=", "&", " ", "\n", "\r", "\u2028", "\u00e4", "\u017f", "::1", "[::1]", "{port}",
+            "8080", "host", "user:pw@", "//", "http", "s"};
+
+    @Test
+    public void curated() {
+        String[] uris = {"", "/", "http://example.com", "https://user:pw@example.com:8443/a/b?x=1&y#frag",
+                "//example.com/path", "mailto:support@example.com", "urn:isbn:0451450523", "/path?query#fragment",
+                "http://[2001:db8::1]:8080/", "http://[fe80::1%eth0]/", "http://[1:zz:2]/", "http://[::1",
+                "http://host:{port}/", "http://host:8{p}x/", "http://host:{}}/", "http://host:{/}/", "http://host:/p",
+                "http://host:abc/p", "http://a@b@c/", "http://a[b]/", "?", "#", "a#b\nc", "a?b\nc", "HTTP://X",
+                "http://h/p#f", "http://h/p?q#f", "http://h/p?q\n", "http\u017f://h/", ":a", "a:", "::", "%zz:/x",
+                "http:path", "https:", "http:///", "HTTPS://:{port}x:#}", "http://[::1]:{?}#", "a://h:{#\n}",
+                "http://u@h:{#}?x", "http://a:{x@h:{#}/?", "//h:1{#}}\n#x}"};
+        for (String uri : uris) {
+            assertSameAsPattern(uri);
+        }
+    }
+
+    @Test
+    public void random() {
+        Random random = new Random(4711);
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 200_000; i++) {
+            builder.setLength(0);
+            builder.append(PREFIXES[random.nextInt(PREFIXES.length)]);
+            int tokens = random.nextInt(12);
+            for (int t = 0; t < tokens; t++) {
+                builder.append(TOKENS[random.nextInt(TOKENS.length)]);
+            }
+            assertSameAsPattern(builder.toString());
+        }
+    }
+
+    @Test(timeout = 1000)
+    public void adversarialInputIsSplitInLinearTime() {
+        int n = 50_000;
+        String[] inputs = {"http://" + StringUtils.repeat('{', n) + "#", "http://h:" + StringUtils.repeat("{}", n) + "#",
+                "http://h:{" + StringUtils.repeat('#', n) + "\n", "//" + StringUtils.repeat('[', n) + "#\n",
+                "http://" + StringUtils.repeat(':', n) + "#", "//" + StringUtils.repeat('@', n) + "#\n",
+                "http://[" + StringUtils.repeat("::", n) + "#", "http://" + StringUtils.repeat("a@", n) + ":{#\n"};
+        for (String input : inputs) {
+            UriReference.parse(input);
+            UriReference.parseHttpUrl(input);
+        }
+    }
+
+    private static void assertSameAsPattern(String uri) {
+        Matcher matcher = URI_PATTERN.matcher(uri);
+        UriReference reference = UriReference.parse(uri);
+        if (!matcher.matches()) {
+            assertNull(uri, reference);
+        } else {
+            assertNotNull(uri, reference);
+            assertEquals(uri, matcher.group(2), reference.getScheme());
+            assertEquals(uri, matcher.group(5), reference.getUserInfo());
+            assertEquals(uri, matcher.group(6), reference.getHost());
+            assertEquals(uri, matcher.group(8), reference.getPort());
+            assertEquals(uri, matcher.group(9), reference.getPath());
+            assertEquals(uri, matcher.group(11), reference.getQuery());
+            assertEquals(uri, matcher.group(13), reference.getFragment());
+        }
+
+        Matcher httpMatcher = HTTP_URL_PATTERN.matcher(uri);
+        UriReference httpReference = UriReference.parseHttpUrl(uri);
+        if (!httpMatcher.matches()) {
+            assertNull(uri, httpReference);
+        } else {
+            assertNotNull(uri, httpReference);
+            assertEquals(uri, httpMatcher.group(1), httpReference.getScheme());
+            assertEquals(uri, httpMatcher.group(4), httpReference.getUserInfo());
+            assertEquals(uri, httpMatcher.group(5), httpReference.getHost());
+            assertEquals(uri, httpMatcher.group(7), httpReference.getPort());
+            assertEquals(uri, httpMatcher.group(8), httpReference.getPath());
+            assertEquals(uri, httpMatcher.group(10), httpReference.getQuery());
+        }
+    }
+}